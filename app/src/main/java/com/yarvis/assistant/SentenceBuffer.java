@@ -0,0 +1,81 @@
+package com.yarvis.assistant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Acumula el texto de una respuesta que llega por fragmentos y lo entrega por frases
+ * completas, para que el TTS empiece con la primera sin esperar al resto.
+ *
+ * Una frase termina en . ! ? … o ; seguido de espacio (admitiendo comillas o paréntesis
+ * de cierre entre medias), o en un salto de línea. Un punto al final de lo recibido
+ * puede ser de "3.5" y se espera al siguiente fragmento; {@link #flush()} entrega lo que
+ * quede al terminar la respuesta.
+ */
+final class SentenceBuffer {
+
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * @return las frases que completa este fragmento, quizá ninguna
+     */
+    List<String> append(String text) {
+        pending.append(text);
+        List<String> sentences = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < pending.length(); i++) {
+            int end = sentenceEnd(i);
+            if (end < 0) continue;
+            String sentence = pending.substring(start, end).trim();
+            // "1." de una lista numerada no es una frase: se habla junto con lo que sigue
+            if (isListMarker(sentence)) continue;
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence);
+            }
+            start = end;
+            i = end - 1;
+        }
+        pending.delete(0, start);
+        return sentences;
+    }
+
+    /**
+     * Entrega lo que queda sin terminar y vacía el buffer.
+     */
+    String flush() {
+        String rest = pending.toString().trim();
+        pending.setLength(0);
+        return rest;
+    }
+
+    void clear() {
+        pending.setLength(0);
+    }
+
+    /**
+     * Si en {@code i} termina una frase, la posición justo después; si no, -1.
+     */
+    private int sentenceEnd(int i) {
+        char c = pending.charAt(i);
+        if (c == '\n') return i + 1;
+        if (c != '.' && c != '!' && c != '?' && c != '…' && c != ';') return -1;
+        int j = i + 1;
+        while (j < pending.length() && isClosing(pending.charAt(j))) {
+            j++;
+        }
+        return j < pending.length() && Character.isWhitespace(pending.charAt(j)) ? j : -1;
+    }
+
+    private static boolean isClosing(char c) {
+        return c == '"' || c == '\'' || c == ')' || c == '»' || c == '”' || c == '’'
+                || c == '!' || c == '?' || c == '.';
+    }
+
+    private static boolean isListMarker(String sentence) {
+        if (sentence.length() < 2 || sentence.length() > 3) return false;
+        for (int i = 0; i < sentence.length() - 1; i++) {
+            if (!Character.isDigit(sentence.charAt(i))) return false;
+        }
+        return sentence.charAt(sentence.length() - 1) == '.';
+    }
+}
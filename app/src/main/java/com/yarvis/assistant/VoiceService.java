@@ -39,6 +39,7 @@ import com.yarvis.assistant.processing.ResultCallback;
 
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Foreground Service para reconocimiento de voz continuo.
@@ -50,8 +51,8 @@ public class VoiceService extends Service implements
         WebSocketService.ConnectionStateListener {
 
     // Estado de conversación
-    private boolean inConversation = false;
-    private String currentSessionId = null;
+    private volatile boolean inConversation = false;
+    private volatile String currentSessionId = null;
 
     private static final String TAG = "VoiceService";
 
@@ -88,8 +89,19 @@ public class VoiceService extends Service implements
 
     // Text-to-Speech
     private TextToSpeech tts;
-    private boolean ttsReady = false;
-    private boolean isSpeaking = false;
+    private volatile boolean ttsReady = false;
+    private volatile boolean isSpeaking = false;
+    // Protege lastUtteranceId y el stream en curso frente a los callbacks del TTS
+    private final Object speechLock = new Object();
+    private final AtomicInteger utteranceCounter = new AtomicInteger();
+    // Última locución encolada: al terminar esa (y no otra) se vuelve a escuchar
+    private String lastUtteranceId;
+    // Última respuesta hablada por frases según llega, y si aún le faltan fragmentos.
+    // Se conserva al perder la conexión: tras reanudarla llega el resto.
+    private String streamMessageId;
+    private boolean streamOpen;
+    private boolean streamSpoken;
+    private final SentenceBuffer streamSentences = new SentenceBuffer();
 
     // Control de lectura de notificaciones
     private boolean readNotifications = true;
@@ -108,7 +120,7 @@ public class VoiceService extends Service implements
     private boolean webSocketBound = false;
     private ServerConfig serverConfig;
     private boolean backendEnabled = false;
-    private boolean backendConnected = false;
+    private volatile boolean backendConnected = false;
 
     private final ServiceConnection webSocketConnection = new ServiceConnection() {
         @Override
@@ -117,7 +129,8 @@ public class VoiceService extends Service implements
             webSocketService = localBinder.getService();
             webSocketBound = true;
 
-            // Registrar listeners
+            // Registrar listeners sin executor: se llaman en el hilo de despacho del
+            // WebSocket, así el historial no se guarda en el hilo principal
             webSocketService.addConnectionStateListener(VoiceService.this);
             webSocketService.addMessageListener(VoiceService.this);
 
@@ -260,14 +273,12 @@ public class VoiceService extends Service implements
 
                     @Override
                     public void onDone(String utteranceId) {
-                        isSpeaking = false;
-                        restartListening();
+                        onUtteranceFinished(utteranceId);
                     }
 
                     @Override
                     public void onError(String utteranceId) {
-                        isSpeaking = false;
-                        restartListening();
+                        onUtteranceFinished(utteranceId);
                     }
                 });
                 ttsReady = true;
@@ -282,14 +293,37 @@ public class VoiceService extends Service implements
      * Habla el texto dado.
      */
     private void speak(String text) {
+        speak(text, TextToSpeech.QUEUE_FLUSH);
+    }
+
+    /**
+     * @param queueMode QUEUE_FLUSH interrumpe lo que se esté hablando; QUEUE_ADD lo pone detrás
+     */
+    private void speak(String text, int queueMode) {
         if (ttsReady && tts != null) {
-            stopListening();
-            isSpeaking = true;
-            tts.speak(text, TextToSpeech.QUEUE_FLUSH, null, "yarvis_response");
+            synchronized (speechLock) {
+                stopListening();
+                isSpeaking = true;
+                lastUtteranceId = "yarvis_response_" + utteranceCounter.incrementAndGet();
+                tts.speak(text, queueMode, null, lastUtteranceId);
+            }
             Log.d(TAG, "Speaking: " + text);
         }
     }
 
+    /**
+     * Se vuelve a escuchar al acabar la última locución encolada, salvo que quede por
+     * llegar parte de una respuesta en streaming.
+     */
+    private void onUtteranceFinished(String utteranceId) {
+        synchronized (speechLock) {
+            if (!utteranceId.equals(lastUtteranceId)) return;
+            isSpeaking = false;
+            if (streamOpen) return;
+        }
+        restartListening();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null) {
@@ -610,8 +644,9 @@ public class VoiceService extends Service implements
             // Eliminar wake word y enviar al backend
             String command = removeWakeWord(text);
             if (!command.isEmpty()) {
-                client.sendVoiceCommand(command);
-                Log.d(TAG, "Sent to backend: " + command);
+                YarvisWebSocketClient.SendResult result = client.sendVoiceCommand(command);
+                // QUEUED: pendiente en el outbox, sale al reconectar
+                Log.d(TAG, (result == YarvisWebSocketClient.SendResult.QUEUED ? "Queued for backend: " : "Sent to backend: ") + command);
             } else {
                 // Solo dijo "yarvis" sin comando
                 String response = "¿Sí? ¿En qué puedo ayudarte?";
@@ -729,21 +764,92 @@ public class VoiceService extends Service implements
         Log.i(TAG, "Backend disconnected");
         inConversation = false;
         currentSessionId = null;
+        detachSpeechStream();
         // Estado manejado por onConnectionStateChanged
     }
 
     @Override
     public void onResponse(com.yarvis.assistant.network.WebSocketMessage.Response response) {
+        recordResponse(response);
+
+        if (response.speak) {
+            speak(response.text);
+        }
+    }
+
+    /**
+     * Habla cada frase de la respuesta en cuanto se completa: la primera interrumpe lo que
+     * se estuviera diciendo y las siguientes se encolan detrás.
+     */
+    @Override
+    public void onResponseChunk(com.yarvis.assistant.network.WebSocketMessage.ResponseChunk chunk) {
+        if (!chunk.speak) return;
+        synchronized (speechLock) {
+            if (!chunk.messageId.equals(streamMessageId)) {
+                streamSentences.clear();
+                streamMessageId = chunk.messageId;
+                streamSpoken = false;
+            }
+            streamOpen = true;
+            for (String sentence : streamSentences.append(chunk.text)) {
+                speak(sentence, streamSpoken ? TextToSpeech.QUEUE_ADD : TextToSpeech.QUEUE_FLUSH);
+                streamSpoken = true;
+            }
+        }
+    }
+
+    @Override
+    public void onResponseEnd(com.yarvis.assistant.network.WebSocketMessage.Response response) {
+        recordResponse(response);
+        if (!response.speak) return;
+
+        boolean restart;
+        synchronized (speechLock) {
+            if (response.messageId == null || !response.messageId.equals(streamMessageId)) {
+                // No se recibieron sus fragmentos: se habla entera
+                restart = false;
+                speak(response.text);
+            } else {
+                String rest = streamSentences.flush();
+                streamOpen = false;
+                if (!rest.isEmpty()) {
+                    restart = false;
+                    speak(rest, streamSpoken ? TextToSpeech.QUEUE_ADD : TextToSpeech.QUEUE_FLUSH);
+                } else {
+                    // Si ya se terminó de hablar, nadie más va a volver a escuchar
+                    restart = !isSpeaking;
+                }
+            }
+        }
+        if (restart) {
+            restartListening();
+        }
+    }
+
+    /**
+     * Deja de esperar al resto de la respuesta en streaming (sin conexión o tras un error):
+     * se vuelve a escuchar al acabar lo ya encolado. Si aun así llegan fragmentos que
+     * falten (p. ej. al reanudar la conexión), siguen detrás.
+     */
+    private void detachSpeechStream() {
+        boolean restart;
+        synchronized (speechLock) {
+            if (!streamOpen) return;
+            streamOpen = false;
+            restart = !isSpeaking;
+        }
+        if (restart) {
+            restartListening();
+        }
+    }
+
+    private void recordResponse(com.yarvis.assistant.network.WebSocketMessage.Response response) {
         Log.d(TAG, "Backend response: " + response.text);
         sendCommandBroadcast("BACKEND: " + response.text);
 
         // Agregar respuesta al historial de chat
         ChatMessageModel message = ChatMessageModel.fromAssistantResponse(response);
         chatHistoryManager.addMessage(message);
-
-        if (response.speak) {
-            speak(response.text);
-        }
     }
 
     @Override
@@ -761,6 +867,9 @@ public class VoiceService extends Service implements
     public void onError(String message) {
         Log.e(TAG, "Backend error: " + message);
         sendCommandBroadcast("ERROR: " + message);
+        // Un error con una respuesta en streaming a medias es el de esa respuesta:
+        // el resto no va a llegar
+        detachSpeechStream();
     }
 
     @Override
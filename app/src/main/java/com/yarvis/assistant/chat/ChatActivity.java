@@ -50,8 +50,8 @@ public class ChatActivity extends AppCompatActivity implements
             serviceBound = true;
 
             // Registrar listeners
-            webSocketService.addConnectionStateListener(ChatActivity.this);
-            webSocketService.addMessageListener(ChatActivity.this);
+            webSocketService.addConnectionStateListener(ChatActivity.this, webSocketService.getUiExecutor());
+            webSocketService.addMessageListener(ChatActivity.this, webSocketService.getUiExecutor());
 
             isConnected = webSocketService.isAuthenticated();
             updateSendButtonState();
@@ -139,8 +139,13 @@ public class ChatActivity extends AppCompatActivity implements
         if (serviceBound && webSocketService != null && isConnected) {
             YarvisWebSocketClient client = webSocketService.getWebSocketClient();
             if (client != null) {
-                client.sendChatMessage(text);
-                historyManager.updateMessageStatus(message.getId(), ChatMessageModel.MessageStatus.SENT);
+                // Queda en SENDING hasta que el servidor responda (o falle) a este mensaje
+                client.sendChatMessageAsync(text).whenComplete((response, error) -> {
+                    ChatMessageModel.MessageStatus status = error == null
+                            ? ChatMessageModel.MessageStatus.SENT
+                            : ChatMessageModel.MessageStatus.ERROR;
+                    runOnUiThread(() -> historyManager.updateMessageStatus(message.getId(), status));
+                });
             } else {
                 historyManager.updateMessageStatus(message.getId(), ChatMessageModel.MessageStatus.ERROR);
             }
@@ -13,9 +13,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Gestiona el historial de conversaciones almacenado localmente.
+ * Se usa desde el hilo principal y desde el de despacho del WebSocket; los listeners se
+ * llaman en el hilo que hizo el cambio.
  */
 public class ChatHistoryManager {
 
@@ -29,7 +32,7 @@ public class ChatHistoryManager {
     private final SharedPreferences prefs;
     private final List<ChatMessageModel> messages;
     private final Map<String, SessionInfo> sessions;
-    private final List<ChatHistoryListener> listeners;
+    private final CopyOnWriteArrayList<ChatHistoryListener> listeners;
 
     public interface ChatHistoryListener {
         void onMessageAdded(ChatMessageModel message);
@@ -78,7 +81,7 @@ public class ChatHistoryManager {
                 .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         this.messages = new ArrayList<>();
         this.sessions = new HashMap<>();
-        this.listeners = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
         loadFromStorage();
     }
 
@@ -90,9 +93,7 @@ public class ChatHistoryManager {
     }
 
     public void addListener(ChatHistoryListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
-        }
+        listeners.addIfAbsent(listener);
     }
 
     public void removeListener(ChatHistoryListener listener) {
@@ -103,6 +104,14 @@ public class ChatHistoryManager {
      * Agrega un mensaje al historial.
      */
     public void addMessage(ChatMessageModel message) {
+        synchronized (this) {
+            addMessageLocked(message);
+            saveToStorage();
+        }
+        notifyMessageAdded(message);
+    }
+
+    private void addMessageLocked(ChatMessageModel message) {
         messages.add(message);
 
         // Actualizar sesión
@@ -129,36 +138,39 @@ public class ChatHistoryManager {
         while (messages.size() > MAX_MESSAGES) {
             messages.remove(0);
         }
-
-        saveToStorage();
-        notifyMessageAdded(message);
     }
 
     /**
      * Actualiza el estado de un mensaje.
      */
     public void updateMessageStatus(String messageId, ChatMessageModel.MessageStatus status) {
-        for (ChatMessageModel msg : messages) {
-            if (msg.getId().equals(messageId)) {
-                msg.setStatus(status);
-                saveToStorage();
-                notifyMessageUpdated(msg);
-                break;
+        ChatMessageModel updated = null;
+        synchronized (this) {
+            for (ChatMessageModel msg : messages) {
+                if (msg.getId().equals(messageId)) {
+                    msg.setStatus(status);
+                    saveToStorage();
+                    updated = msg;
+                    break;
+                }
             }
         }
+        if (updated != null) {
+            notifyMessageUpdated(updated);
+        }
     }
 
     /**
      * Obtiene todos los mensajes.
      */
-    public List<ChatMessageModel> getAllMessages() {
+    public synchronized List<ChatMessageModel> getAllMessages() {
         return new ArrayList<>(messages);
     }
 
     /**
      * Obtiene mensajes de una sesión específica.
      */
-    public List<ChatMessageModel> getMessagesForSession(String sessionId) {
+    public synchronized List<ChatMessageModel> getMessagesForSession(String sessionId) {
         List<ChatMessageModel> result = new ArrayList<>();
         for (ChatMessageModel msg : messages) {
             if (sessionId.equals(msg.getSessionId())) {
@@ -171,7 +183,7 @@ public class ChatHistoryManager {
     /**
      * Obtiene los últimos N mensajes.
      */
-    public List<ChatMessageModel> getRecentMessages(int count) {
+    public synchronized List<ChatMessageModel> getRecentMessages(int count) {
         int start = Math.max(0, messages.size() - count);
         return new ArrayList<>(messages.subList(start, messages.size()));
     }
@@ -179,7 +191,7 @@ public class ChatHistoryManager {
     /**
      * Obtiene todas las sesiones ordenadas por última actividad.
      */
-    public List<SessionInfo> getAllSessions() {
+    public synchronized List<SessionInfo> getAllSessions() {
         List<SessionInfo> result = new ArrayList<>(sessions.values());
         Collections.sort(result, (a, b) -> Long.compare(b.lastActivityAt, a.lastActivityAt));
         return result;
@@ -188,7 +200,7 @@ public class ChatHistoryManager {
     /**
      * Obtiene información de una sesión.
      */
-    public SessionInfo getSession(String sessionId) {
+    public synchronized SessionInfo getSession(String sessionId) {
         return sessions.get(sessionId);
     }
 
@@ -196,16 +208,18 @@ public class ChatHistoryManager {
      * Limpia todo el historial.
      */
     public void clearHistory() {
-        messages.clear();
-        sessions.clear();
-        saveToStorage();
+        synchronized (this) {
+            messages.clear();
+            sessions.clear();
+            saveToStorage();
+        }
         notifyHistoryCleared();
     }
 
     /**
      * Elimina mensajes de una sesión específica.
      */
-    public void clearSession(String sessionId) {
+    public synchronized void clearSession(String sessionId) {
         messages.removeIf(msg -> sessionId.equals(msg.getSessionId()));
         sessions.remove(sessionId);
         saveToStorage();
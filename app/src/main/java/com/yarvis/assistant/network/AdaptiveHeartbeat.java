@@ -0,0 +1,102 @@
+package com.yarvis.assistant.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aprende, por tipo de red, el mayor intervalo de inactividad que aguanta la conexión
+ * antes de que un NAT o firewall intermedio olvide el mapeo.
+ *
+ * Se empieza en {@link #INITIAL_INTERVAL_MS}. Cada {@link #PROBE_AFTER_SUCCESSES} pongs
+ * recibidos tras estar inactivo todo el intervalo, se prueba uno mayor. Si un ping de
+ * prueba se queda sin pong, ese intervalo pasa a ser el techo y se vuelve al último que
+ * funcionó; las siguientes pruebas se acercan al techo a mitad de camino, sin llegar a él.
+ * Solo cuentan los pings enviados tras un intervalo completo sin tráfico: si llegaban
+ * mensajes, el ping no demuestra nada sobre el NAT.
+ */
+final class AdaptiveHeartbeat {
+
+    private static final String TAG = "AdaptiveHeartbeat";
+
+    static final long MIN_INTERVAL_MS = 15 * 1000L;
+    static final long INITIAL_INTERVAL_MS = 30 * 1000L;
+    static final long MAX_INTERVAL_MS = 10 * 60 * 1000L;
+    static final int PROBE_AFTER_SUCCESSES = 3;
+    private static final double PROBE_FACTOR = 1.5;
+    // Sin margen suficiente hasta el techo se deja de probar
+    private static final double MIN_PROBE_GAP = 0.1;
+
+    /**
+     * Lo aprendido para un tipo de red.
+     */
+    private static final class State {
+        long interval = INITIAL_INTERVAL_MS;
+        long safeInterval;
+        long ceiling = MAX_INTERVAL_MS;
+        int successes;
+        long missedPongs;
+    }
+
+    private final Map<String, State> states = new HashMap<>();
+
+    /**
+     * Intervalo de inactividad tras el que hay que enviar un ping en {@code networkType}.
+     */
+    synchronized long getInterval(String networkType) {
+        return state(networkType).interval;
+    }
+
+    /**
+     * Llegó el pong de un ping enviado tras {@code idleMs} sin recibir nada.
+     */
+    synchronized void onPong(String networkType, long idleMs) {
+        State state = state(networkType);
+        if (idleMs < state.interval) return;
+
+        state.safeInterval = Math.max(state.safeInterval, state.interval);
+        if (++state.successes < PROBE_AFTER_SUCCESSES) return;
+        state.successes = 0;
+
+        long next = Math.min((long) (state.interval * PROBE_FACTOR), (state.interval + state.ceiling) / 2);
+        if (next - state.interval < state.interval * MIN_PROBE_GAP) return;
+        NetLog.d(TAG, "Probing " + next + "ms on " + networkType + " (safe " + state.safeInterval + "ms)");
+        state.interval = next;
+    }
+
+    /**
+     * Un ping enviado tras {@code idleMs} sin recibir nada se quedó sin pong.
+     */
+    synchronized void onMissedPong(String networkType, long idleMs) {
+        State state = state(networkType);
+        state.missedPongs++;
+        state.successes = 0;
+        if (idleMs < state.interval) return;
+
+        // El NAT no aguanta este intervalo: se vuelve al último seguro (o a la mitad si no hay)
+        state.ceiling = Math.max(MIN_INTERVAL_MS, Math.min(state.ceiling, state.interval));
+        long fallback = state.safeInterval > 0 && state.safeInterval < state.interval
+                ? state.safeInterval
+                : state.interval / 2;
+        state.interval = Math.max(MIN_INTERVAL_MS, fallback);
+        state.safeInterval = Math.min(state.safeInterval, state.interval);
+        NetLog.w(TAG, "Missed pong on " + networkType + ", interval " + state.interval
+                + "ms (ceiling " + state.ceiling + "ms)");
+    }
+
+    synchronized long getTotalMissedPongs() {
+        long total = 0;
+        for (State state : states.values()) {
+            total += state.missedPongs;
+        }
+        return total;
+    }
+
+    private State state(String networkType) {
+        State state = states.get(networkType);
+        if (state == null) {
+            state = new State();
+            states.put(networkType, state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,119 @@
+package com.yarvis.assistant.network;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+/**
+ * {@link ConnectivityMonitor} sobre la red por defecto del sistema.
+ *
+ * Una red cuenta como utilizable cuando tiene Internet y el sistema la ha validado
+ * (no es un portal cautivo ni una red sin salida). Si la red por defecto cambia por otra
+ * también utilizable (wifi ↔ datos móviles) se avisa con
+ * {@link Listener#onNetworkChanged()}, aunque la disponibilidad no cambie.
+ */
+public class AndroidConnectivityMonitor implements ConnectivityMonitor {
+
+    private static final String TAG = "ConnectivityMonitor";
+
+    private final ConnectivityManager connectivityManager;
+    private volatile boolean available;
+    private volatile String networkType;
+    // Red por defecto utilizable actual, para detectar el paso de una a otra
+    private Network network;
+    private Listener listener;
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            networkType = typeOf(capabilities);
+            update(network, isUsable(capabilities));
+        }
+
+        @Override
+        public void onLost(Network network) {
+            update(null, false);
+        }
+    };
+
+    public AndroidConnectivityMonitor(Context context) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        Network active = connectivityManager.getActiveNetwork();
+        NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(active);
+        this.available = isUsable(capabilities);
+        this.networkType = typeOf(capabilities);
+        this.network = available ? active : null;
+    }
+
+    @Override
+    public boolean isNetworkAvailable() {
+        return available;
+    }
+
+    @Override
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    @Override
+    public synchronized void start(Listener listener) {
+        if (this.listener != null) return;
+        this.listener = listener;
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (listener == null) return;
+        listener = null;
+        try {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        } catch (IllegalArgumentException e) {
+            NetLog.w(TAG, "Network callback was not registered");
+        }
+    }
+
+    private void update(Network usableNetwork, boolean usable) {
+        Listener current;
+        boolean changed;
+        synchronized (this) {
+            Network previous = network;
+            network = usable ? usableNetwork : null;
+            // Las capacidades de la misma red cambian a menudo (p. ej. la señal): solo
+            // cuenta el paso a otra red
+            changed = usable && available && previous != null && !previous.equals(usableNetwork);
+            if (usable == available && !changed) return;
+            available = usable;
+            current = listener;
+        }
+        if (changed) {
+            NetLog.d(TAG, "Default network changed to " + networkType);
+            if (current != null) {
+                current.onNetworkChanged();
+            }
+            return;
+        }
+        NetLog.d(TAG, usable ? "Network available" : "Network lost");
+        if (current == null) return;
+        if (usable) {
+            current.onNetworkAvailable();
+        } else {
+            current.onNetworkLost();
+        }
+    }
+
+    private static String typeOf(NetworkCapabilities capabilities) {
+        if (capabilities == null) return NETWORK_UNKNOWN;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) return NETWORK_WIFI;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) return NETWORK_CELLULAR;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) return NETWORK_ETHERNET;
+        return NETWORK_OTHER;
+    }
+
+    private static boolean isUsable(NetworkCapabilities capabilities) {
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+    }
+}
@@ -0,0 +1,69 @@
+package com.yarvis.assistant.network;
+
+import java.util.Locale;
+
+/**
+ * Duración de cada fase del establecimiento de una conexión WebSocket:
+ * conexión TCP (con la familia de direcciones que ganó), handshake TLS (solo wss://)
+ * y upgrade HTTP.
+ *
+ * Un valor -1 indica que la fase no se ha completado o no aplica.
+ */
+public final class ConnectTimings {
+
+    volatile long tcpConnectMs = -1;
+    volatile long tlsHandshakeMs = -1;
+    volatile long upgradeMs = -1;
+    volatile boolean tlsResumed;
+    volatile String alpnProtocol;
+    volatile String addressFamily;
+    volatile int connectAttempts;
+
+    public long getTcpConnectMs() {
+        return tcpConnectMs;
+    }
+
+    public long getTlsHandshakeMs() {
+        return tlsHandshakeMs;
+    }
+
+    public long getUpgradeMs() {
+        return upgradeMs;
+    }
+
+    /**
+     * true si el handshake TLS reutilizó una sesión cacheada (sin handshake completo).
+     */
+    public boolean isTlsResumed() {
+        return tlsResumed;
+    }
+
+    /**
+     * Protocolo negociado por ALPN, o null si no se ofreció o el servidor no eligió ninguno.
+     */
+    public String getAlpnProtocol() {
+        return alpnProtocol;
+    }
+
+    /**
+     * Familia de la dirección con la que se conectó ("IPv4" o "IPv6"), o null.
+     */
+    public String getAddressFamily() {
+        return addressFamily;
+    }
+
+    /**
+     * Intentos de conexión TCP lanzados hasta que uno ganó.
+     */
+    public int getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "tcp=%dms (%s, %d attempts) tls=%dms%s upgrade=%dms%s",
+                tcpConnectMs, addressFamily, connectAttempts,
+                tlsHandshakeMs, tlsResumed ? " (resumed)" : "", upgradeMs,
+                alpnProtocol != null ? " alpn=" + alpnProtocol : "");
+    }
+}
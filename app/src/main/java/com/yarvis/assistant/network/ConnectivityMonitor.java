@@ -0,0 +1,55 @@
+package com.yarvis.assistant.network;
+
+/**
+ * Fuente de señales de conectividad para {@link YarvisWebSocketClient}.
+ *
+ * Con un monitor configurado, el cliente no reintenta conectar mientras no hay red
+ * y hace un intento inmediato en cuanto aparece una red utilizable.
+ */
+public interface ConnectivityMonitor {
+
+    String NETWORK_WIFI = "wifi";
+    String NETWORK_CELLULAR = "cellular";
+    String NETWORK_ETHERNET = "ethernet";
+    String NETWORK_OTHER = "other";
+    String NETWORK_UNKNOWN = "unknown";
+
+    interface Listener {
+        /**
+         * Hay una red con acceso a Internet. Puede llamarse desde cualquier hilo.
+         */
+        void onNetworkAvailable();
+
+        /**
+         * No queda ninguna red utilizable. Puede llamarse desde cualquier hilo.
+         */
+        void onNetworkLost();
+
+        /**
+         * La red por defecto pasó a ser otra sin dejar de haber red (p. ej. de datos móviles
+         * al wifi de casa). Puede llamarse desde cualquier hilo.
+         */
+        default void onNetworkChanged() {
+        }
+    }
+
+    /**
+     * Estado actual, consultable en cualquier momento (también antes de start()).
+     */
+    boolean isNetworkAvailable();
+
+    /**
+     * Tipo de la red actual ({@link #NETWORK_WIFI}, {@link #NETWORK_CELLULAR}...). Cada tipo
+     * tiene NATs distintos, así que el heartbeat aprende un intervalo para cada uno.
+     */
+    default String getNetworkType() {
+        return NETWORK_UNKNOWN;
+    }
+
+    /**
+     * Empieza a notificar cambios a {@code listener}.
+     */
+    void start(Listener listener);
+
+    void stop();
+}
@@ -0,0 +1,179 @@
+package com.yarvis.assistant.network;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Conexión TCP "happy eyeballs" (RFC 8305) para el transporte bloqueante.
+ *
+ * Resuelve todas las direcciones del host, las intercala por familia (IPv6, IPv4, IPv6...)
+ * respetando el orden del resolver y lanza un intento cada {@link #ATTEMPT_DELAY_MS} sin
+ * esperar a que falle el anterior. Gana el primero que conecta; el resto se cierra.
+ * Todo, DNS incluido, está acotado por un plazo global para que una red mala no deje
+ * la reconexión colgada los minutos que tarda el timeout del sistema.
+ */
+final class DualStackConnector {
+
+    private static final String TAG = "DualStackConnector";
+
+    /** Retardo entre intentos escalonados, el recomendado por la RFC 8305. */
+    static final int ATTEMPT_DELAY_MS = 250;
+
+    private DualStackConnector() {
+    }
+
+    /**
+     * Conecta con alguna de las direcciones de {@code host} antes de {@code timeoutMs}.
+     * Anota la familia ganadora y el número de intentos en {@code timings}.
+     *
+     * @param executor hilos para el DNS y los intentos en paralelo
+     */
+    static Socket connect(String host, int port, int timeoutMs, ExecutorService executor,
+                          ConnectTimings timings) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<InetAddress> addresses = interleave(resolve(host, executor, timeoutMs));
+
+        LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<>();
+        List<Socket> sockets = new ArrayList<>();
+        IOException lastError = null;
+        int next = 0;
+        int pending = 0;
+
+        try {
+            startAttempt(addresses.get(next++), port, deadline, executor, sockets, results);
+            pending++;
+
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Connect timed out after " + timeoutMs + "ms");
+                }
+                long wait = next < addresses.size()
+                        ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ATTEMPT_DELAY_MS))
+                        : remaining;
+
+                Object result = results.poll(wait, TimeUnit.NANOSECONDS);
+                if (result == null) {
+                    // Sin respuesta a tiempo: se lanza el siguiente en paralelo
+                    if (next < addresses.size()) {
+                        startAttempt(addresses.get(next++), port, deadline, executor, sockets, results);
+                        pending++;
+                    }
+                    continue;
+                }
+
+                pending--;
+                if (result instanceof Socket) {
+                    Socket winner = (Socket) result;
+                    synchronized (sockets) {
+                        sockets.remove(winner);
+                    }
+                    timings.connectAttempts = next;
+                    timings.addressFamily = winner.getInetAddress() instanceof Inet6Address ? "IPv6" : "IPv4";
+                    return winner;
+                }
+
+                lastError = (IOException) result;
+                NetLog.d(TAG, "Connect attempt failed: " + lastError.getMessage());
+                if (next < addresses.size()) {
+                    // Tras un fallo no se espera al escalonado
+                    startAttempt(addresses.get(next++), port, deadline, executor, sockets, results);
+                    pending++;
+                } else if (pending == 0) {
+                    throw lastError;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Connect interrupted", e);
+        } finally {
+            // Aborta los intentos perdedores (cerrar un socket corta su connect)
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    closeQuietly(socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ordena las direcciones alternando familias, empezando por la que el resolver
+     * puso primero.
+     */
+    static List<InetAddress> interleave(InetAddress[] resolved) {
+        ArrayDeque<InetAddress> v6 = new ArrayDeque<>();
+        ArrayDeque<InetAddress> v4 = new ArrayDeque<>();
+        for (InetAddress address : resolved) {
+            (address instanceof Inet6Address ? v6 : v4).add(address);
+        }
+
+        List<InetAddress> ordered = new ArrayList<>(resolved.length);
+        boolean preferV6 = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+        while (!v6.isEmpty() || !v4.isEmpty()) {
+            ArrayDeque<InetAddress> first = preferV6 ? v6 : v4;
+            ArrayDeque<InetAddress> second = preferV6 ? v4 : v6;
+            if (!first.isEmpty()) ordered.add(first.poll());
+            if (!second.isEmpty()) ordered.add(second.poll());
+        }
+        return ordered;
+    }
+
+    private static InetAddress[] resolve(String host, ExecutorService executor, int timeoutMs)
+            throws IOException {
+        Future<InetAddress[]> lookup = executor.submit(() -> InetAddress.getAllByName(host));
+        try {
+            InetAddress[] addresses = lookup.get(timeoutMs, TimeUnit.MILLISECONDS);
+            NetLog.d(TAG, "Resolved " + host + " to " + Arrays.toString(addresses));
+            return addresses;
+        } catch (TimeoutException e) {
+            lookup.cancel(true);
+            throw new SocketTimeoutException("DNS lookup for " + host + " timed out");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("DNS lookup interrupted", e);
+        }
+    }
+
+    private static void startAttempt(InetAddress address, int port, long deadline, ExecutorService executor,
+                                     List<Socket> sockets, LinkedBlockingQueue<Object> results) {
+        Socket socket = new Socket();
+        synchronized (sockets) {
+            sockets.add(socket);
+        }
+
+        executor.execute(() -> {
+            try {
+                int timeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                socket.connect(new InetSocketAddress(address, port), timeout);
+                results.add(socket);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                results.add(e);
+            }
+        });
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.yarvis.assistant.network;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Endpoints alternativos del mismo backend (p. ej. la IP de la LAN y el ingress público),
+ * en orden de preferencia, y cuál de ellos se está usando.
+ *
+ * {@link #probe} abre en paralelo una conexión WebSocket a cada uno y mide lo que tarda
+ * en completarse el handshake: el primero que abre es el de menor RTT, y su conexión se
+ * puede adoptar en vez de abrir otra al mismo endpoint. Tras
+ * {@link #FAILOVER_AFTER_FAILURES} intentos fallidos seguidos contra el actual se pasa al
+ * siguiente, empezando por los que respondieron más rápido en la última medición.
+ */
+final class EndpointSelector {
+
+    private static final String TAG = "EndpointSelector";
+
+    static final int FAILOVER_AFTER_FAILURES = 2;
+    static final long PROBE_TIMEOUT_MS = 5000;
+
+    /**
+     * Endpoint que antes completó el handshake en una medición.
+     */
+    interface Winner {
+        String url();
+
+        /**
+         * Se queda con la conexión de la medición, ya abierta, en lugar de abrir otra. Solo
+         * durante {@code onFastest}; después se cierra. Desde aquí los eventos del transporte
+         * van a {@code callback}, y su onOpen lo llama quien adopta. El servidor no envía
+         * nada antes del auth, así que no se pierde ningún mensaje.
+         *
+         * @return el transporte, o null si ya se cerró o ya se adoptó
+         */
+        WebSocketTransport adopt(WebSocketTransport.Callback callback);
+    }
+
+    private static final class Endpoint {
+        final String url;
+        // RTT de conexión + handshake en la última medición; -1 si no respondió o sin medir
+        long rttMs = -1;
+        int failures;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+    }
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private Endpoint current;
+
+    EndpointSelector(List<String> urls) {
+        for (String url : urls) {
+            endpoints.add(new Endpoint(url));
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        current = endpoints.get(0);
+    }
+
+    int size() {
+        return endpoints.size();
+    }
+
+    synchronized String current() {
+        return current.url;
+    }
+
+    /**
+     * El de menor RTT en la última medición, o null si ninguno respondió.
+     */
+    synchronized String fastest() {
+        Endpoint fastest = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.rttMs >= 0 && (fastest == null || endpoint.rttMs < fastest.rttMs)) {
+                fastest = endpoint;
+            }
+        }
+        return fastest != null ? fastest.url : null;
+    }
+
+    /**
+     * Usa {@code url} en las siguientes conexiones.
+     */
+    synchronized void select(String url) {
+        Endpoint endpoint = find(url);
+        if (endpoint != null) {
+            endpoint.failures = 0;
+            current = endpoint;
+        }
+    }
+
+    /**
+     * true si la última medición da a {@code url} claramente más rápido que el actual
+     * (menos de la mitad de RTT) o si el actual no respondió.
+     */
+    synchronized boolean isMuchFaster(String url) {
+        Endpoint endpoint = find(url);
+        if (endpoint == null || endpoint == current || endpoint.rttMs < 0) return false;
+        return current.rttMs < 0 || endpoint.rttMs * 2 < current.rttMs;
+    }
+
+    synchronized void onConnected() {
+        current.failures = 0;
+    }
+
+    /**
+     * Un intento de conexión contra el actual falló antes de abrir.
+     *
+     * @return true si se pasó a otro endpoint
+     */
+    synchronized boolean onConnectFailed() {
+        if (++current.failures < FAILOVER_AFTER_FAILURES || endpoints.size() < 2) {
+            return false;
+        }
+        current.failures = 0;
+        current.rttMs = -1;
+        Endpoint next = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == current) continue;
+            if (next == null || rank(endpoint) < rank(next)) {
+                next = endpoint;
+            }
+        }
+        NetLog.w(TAG, "Failing over from " + current.url + " to " + next.url);
+        current = next;
+        return true;
+    }
+
+    /**
+     * Mide en paralelo todos los endpoints. {@code onFastest} recibe, en el planificador,
+     * el primero que completa el handshake o null si ninguno lo hace en
+     * {@link #PROBE_TIMEOUT_MS}; el resto se sigue midiendo para ordenar la conmutación.
+     * {@code onComplete} se ejecuta cuando ya se tienen todas las medidas. Ambos son
+     * opcionales; sin {@code onFastest} todas las conexiones se cierran al medirlas.
+     */
+    void probe(WebSocketTransport.Factory factory, ScheduledExecutorService scheduler,
+               Consumer<Winner> onFastest, Runnable onComplete) {
+        ProbeRound round = new ProbeRound(scheduler, onFastest, onComplete, endpoints.size());
+        List<Probe> probes = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            probes.add(new Probe(round, endpoint));
+        }
+        scheduler.schedule(() -> {
+            for (Probe probe : probes) {
+                probe.finish(-1);
+            }
+        }, PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        for (Probe probe : probes) {
+            probe.start(factory);
+        }
+    }
+
+    // Los no medidos o caídos van detrás, en el orden de la configuración
+    private long rank(Endpoint endpoint) {
+        return endpoint.rttMs >= 0
+                ? endpoint.rttMs
+                : Long.MAX_VALUE - endpoints.size() + endpoints.indexOf(endpoint);
+    }
+
+    private Endpoint find(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) return endpoint;
+        }
+        return null;
+    }
+
+    /**
+     * Una ronda de medición: avisa una sola vez del más rápido (el primero que abre, o null)
+     * y otra al terminar todas las medidas.
+     */
+    private static final class ProbeRound {
+        final ScheduledExecutorService scheduler;
+        final Consumer<Winner> onFastest;
+        final Runnable onComplete;
+        int pending;
+        boolean reported;
+
+        ProbeRound(ScheduledExecutorService scheduler, Consumer<Winner> onFastest,
+                   Runnable onComplete, int pending) {
+            this.scheduler = scheduler;
+            this.onFastest = onFastest;
+            this.onComplete = onComplete;
+            this.pending = pending;
+        }
+
+        /**
+         * @return true si {@code probe} es el ganador y su conexión queda abierta para
+         *         adoptarla; si no, hay que cerrarla
+         */
+        synchronized boolean onResult(Probe probe, boolean reachable) {
+            pending--;
+            boolean keep = false;
+            if (!reported && (reachable || pending == 0)) {
+                reported = true;
+                if (onFastest != null) {
+                    Probe winner = reachable ? probe : null;
+                    keep = winner != null;
+                    post(() -> {
+                        onFastest.accept(winner);
+                        // Si no se adoptó, ya no hace falta
+                        if (winner != null) {
+                            winner.closeIfNotAdopted();
+                        }
+                    });
+                }
+            }
+            if (pending == 0 && onComplete != null) {
+                post(onComplete);
+            }
+            return keep;
+        }
+
+        private void post(Runnable task) {
+            if (!scheduler.isShutdown()) {
+                scheduler.execute(task);
+            }
+        }
+    }
+
+    private final class Probe implements WebSocketTransport.Callback, Winner {
+        private final ProbeRound round;
+        private final Endpoint endpoint;
+        private WebSocketTransport transport;
+        private long startNanos;
+        private boolean finished;
+        // Ganador pendiente de adoptar, y a quién pasan sus eventos una vez adoptado
+        private boolean kept;
+        private volatile WebSocketTransport.Callback delegate;
+
+        Probe(ProbeRound round, Endpoint endpoint) {
+            this.round = round;
+            this.endpoint = endpoint;
+        }
+
+        void start(WebSocketTransport.Factory factory) {
+            try {
+                synchronized (this) {
+                    startNanos = System.nanoTime();
+                    transport = factory.create(new URI(endpoint.url), this);
+                }
+                transport.connect();
+            } catch (Exception e) {
+                NetLog.w(TAG, "Cannot probe " + endpoint.url + ": " + e.getMessage());
+                finish(-1);
+            }
+        }
+
+        void finish(long rttMs) {
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+                // Antes de avisar a la ronda: el ganador puede adoptarse en cuanto se avisa
+                kept = rttMs >= 0;
+            }
+            synchronized (EndpointSelector.this) {
+                endpoint.rttMs = rttMs;
+            }
+            NetLog.d(TAG, "Probe " + endpoint.url + ": " + (rttMs >= 0 ? rttMs + "ms" : "unreachable"));
+            if (!round.onResult(this, rttMs >= 0)) {
+                closeIfNotAdopted();
+            }
+        }
+
+        @Override
+        public String url() {
+            return endpoint.url;
+        }
+
+        @Override
+        public synchronized WebSocketTransport adopt(WebSocketTransport.Callback callback) {
+            if (!kept || transport == null || !transport.isConnected()) return null;
+            kept = false;
+            delegate = callback;
+            return transport;
+        }
+
+        void closeIfNotAdopted() {
+            WebSocketTransport toClose;
+            synchronized (this) {
+                if (delegate != null) return;
+                kept = false;
+                toClose = transport;
+            }
+            if (toClose != null) {
+                toClose.close();
+            }
+        }
+
+        @Override
+        public void onOpen() {
+            long elapsed;
+            synchronized (this) {
+                elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            }
+            finish(elapsed);
+        }
+
+        @Override
+        public void onMessage(String message) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onMessage(message);
+            }
+        }
+
+        @Override
+        public void onBinary(ByteBuffer data) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onBinary(data);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onClose(code, reason);
+            } else {
+                finish(-1);
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onError(ex);
+            } else {
+                finish(-1);
+            }
+        }
+
+        @Override
+        public void onWritabilityChanged(boolean writable) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onWritabilityChanged(writable);
+            }
+        }
+
+        @Override
+        public void onPong(long rttNanos) {
+            WebSocketTransport.Callback target = delegate;
+            if (target != null) {
+                target.onPong(rttNanos);
+            }
+        }
+    }
+}
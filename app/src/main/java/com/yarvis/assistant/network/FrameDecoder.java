@@ -0,0 +1,176 @@
+package com.yarvis.assistant.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodificador incremental de frames WebSocket (servidor → cliente).
+ *
+ * Consume bytes a medida que llegan del socket a un buffer de lectura de tamaño fijo y
+ * entrega cada frame completo al handler. Las cabeceras se parsean directamente del buffer
+ * (sin una lectura por byte) y las longitudes de 64 bits se respetan hasta el máximo
+ * configurado.
+ *
+ * Si el payload entero ya está en el buffer de lectura se entrega sin copiarlo; si llega
+ * repartido en varias lecturas se acumula en un buffer reutilizable. En ambos casos el
+ * payload solo es válido durante la llamada al handler.
+ *
+ * Los bytes de una cabecera incompleta se dejan sin consumir en el buffer de entrada,
+ * así que quien lo llama debe compactar el buffer antes de la siguiente lectura.
+ */
+final class FrameDecoder {
+
+    /**
+     * Recibe frames completos.
+     */
+    interface FrameHandler {
+        /**
+         * @param payload bytes del payload entre position y limit, válidos solo durante la llamada
+         * @return false para dejar de decodificar (p. ej. tras un frame de cierre)
+         */
+        boolean onFrame(boolean fin, boolean rsv1, int opcode, ByteBuffer payload) throws IOException;
+    }
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private final FrameHandler handler;
+    private int maxFrameSize = MessageAssembler.DEFAULT_MAX_MESSAGE_SIZE;
+    private ByteBuffer payloadBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    // Frame en curso (cabecera ya leída, payload incompleto)
+    private boolean inFrame;
+    private boolean fin;
+    private boolean rsv1;
+    private int opcode;
+    private int payloadLength;
+    private int maskKey;
+    private boolean masked;
+
+    FrameDecoder(FrameHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Tamaño máximo de payload de un frame. Si se supera se lanza un error 1009.
+     */
+    void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Descarta un frame a medias (p. ej. al cerrar la conexión).
+     */
+    void reset() {
+        inFrame = false;
+        payloadBuffer.clear();
+    }
+
+    /**
+     * Procesa todos los frames disponibles en {@code in} (en modo lectura).
+     */
+    void feed(ByteBuffer in) throws IOException {
+        while (true) {
+            if (!inFrame && !readHeader(in)) {
+                return;
+            }
+
+            boolean proceed;
+            if (payloadBuffer.position() == 0 && in.remaining() >= payloadLength) {
+                // Payload completo en el buffer de lectura: se entrega sin copiar
+                int start = in.position();
+                int end = start + payloadLength;
+                int limit = in.limit();
+                in.limit(end);
+                inFrame = false;
+                proceed = deliver(in, start, end);
+                in.limit(limit);
+                in.position(end);
+            } else {
+                int n = Math.min(in.remaining(), payloadLength - payloadBuffer.position());
+                int limit = in.limit();
+                in.limit(in.position() + n);
+                payloadBuffer.put(in);
+                in.limit(limit);
+                if (payloadBuffer.position() < payloadLength) {
+                    return;
+                }
+
+                payloadBuffer.flip();
+                inFrame = false;
+                proceed = deliver(payloadBuffer, 0, payloadLength);
+                payloadBuffer.clear();
+                if (payloadBuffer.capacity() > MAX_POOLED_CAPACITY) {
+                    payloadBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+                }
+            }
+
+            if (!proceed) {
+                return;
+            }
+        }
+    }
+
+    private boolean deliver(ByteBuffer buf, int start, int end) throws IOException {
+        // Unmask si es necesario (el servidor no debería enmascarar)
+        if (masked) {
+            FrameEncoder.applyMask(buf, start, end, maskKey);
+        }
+        buf.position(start);
+        return handler.onFrame(fin, rsv1, opcode, buf);
+    }
+
+    private boolean readHeader(ByteBuffer in) throws IOException {
+        if (in.remaining() < 2) return false;
+
+        int start = in.position();
+        int firstByte = in.get(start) & 0xFF;
+        int secondByte = in.get(start + 1) & 0xFF;
+
+        boolean isMasked = (secondByte & 0x80) != 0;
+        int lengthCode = secondByte & 0x7F;
+        int headerSize = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + (isMasked ? 4 : 0);
+        if (in.remaining() < headerSize) return false;
+
+        long length;
+        int pos = start + 2;
+        if (lengthCode == 126) {
+            length = in.getShort(pos) & 0xFFFF;
+            pos += 2;
+        } else if (lengthCode == 127) {
+            length = in.getLong(pos);
+            pos += 8;
+        } else {
+            length = lengthCode;
+        }
+
+        int frameOpcode = firstByte & 0x0F;
+        boolean frameFin = (firstByte & 0x80) != 0;
+        if (frameOpcode >= 0x8 && (!frameFin || length > MAX_CONTROL_PAYLOAD)) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "Invalid control frame");
+        }
+        if (length < 0 || length > maxFrameSize) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Frame of " + length + " bytes exceeds " + maxFrameSize);
+        }
+
+        if (isMasked) {
+            maskKey = in.getInt(pos);
+        }
+
+        in.position(start + headerSize);
+        fin = frameFin;
+        rsv1 = (firstByte & 0x40) != 0;
+        opcode = frameOpcode;
+        masked = isMasked;
+        payloadLength = (int) length;
+        inFrame = true;
+
+        if (payloadBuffer.capacity() < payloadLength && in.remaining() < payloadLength) {
+            payloadBuffer = ByteBuffer.allocate(payloadLength);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,312 @@
+package com.yarvis.assistant.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+/**
+ * Codificador de frames WebSocket del lado cliente (RFC 6455).
+ *
+ * Los frames se codifican uno detrás de otro en un único ByteBuffer reutilizable
+ * (cabecera, máscara y payload contiguos), de modo que un lote de mensajes pendientes
+ * se escribe en el socket con una sola llamada. Los mensajes grandes se pueden enviar
+ * por fragmentos, intercalando frames de control entre ellos. El texto se codifica en UTF-8
+ * directamente dentro del buffer y el enmascarado se aplica de 8 en 8 bytes.
+ *
+ * No es thread-safe: cada conexión tiene su propio encoder y solo lo usa su hilo escritor.
+ */
+final class FrameEncoder {
+
+    /** Tamaño máximo de cabecera: 2 bytes base + 8 de longitud extendida + 4 de máscara. */
+    static final int MAX_HEADER_SIZE = 14;
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private final SecureRandom random = new SecureRandom();
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // Lote en curso: frames completos entre 0 y position
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    // Mensaje grande que se envía en fragmentos: payload completo y lo que queda por enviar
+    private ByteBuffer message = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private ByteBuffer remaining;
+    private int messageOpcode;
+    private boolean messageCompressed;
+    private boolean messageStarted;
+
+    // permessage-deflate negociado (null si no hay compresión)
+    private PerMessageDeflate deflate;
+    private int compressionThreshold = PerMessageDeflate.DEFAULT_THRESHOLD;
+
+    /**
+     * Activa la compresión de mensajes de datos de al menos {@code threshold} bytes.
+     */
+    void setCompression(PerMessageDeflate deflate, int threshold) {
+        this.deflate = deflate;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Bytes ya codificados en el lote.
+     */
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Añade al lote un frame de texto completo (FIN + opcode 0x1).
+     */
+    void appendText(String message) {
+        int start = buffer.position();
+        // Se supone 1 byte por char; si el UTF-8 resulta más largo se recoloca el payload
+        int guessedHeader = headerSize(message.length());
+        // UTF-8 nunca necesita más de 3 bytes por char UTF-16
+        ensureCapacity(start + MAX_HEADER_SIZE + message.length() * 3);
+        buffer.position(start + guessedHeader);
+
+        utf8.reset();
+        utf8.encode(CharBuffer.wrap(message), buffer, true);
+        utf8.flush(buffer);
+
+        finishDataFrame(0x1, start, start + guessedHeader);
+    }
+
+    /**
+     * Añade al lote un frame con payload binario arbitrario.
+     */
+    void append(int opcode, byte[] payload, int offset, int length) {
+        int start = buffer.position();
+        int payloadStart = start + headerSize(length);
+        ensureCapacity(payloadStart + length);
+        buffer.position(payloadStart);
+        buffer.put(payload, offset, length);
+
+        finishDataFrame(opcode, start, payloadStart);
+    }
+
+    /**
+     * Añade al lote un frame cuyo payload son los bytes restantes de {@code payload}.
+     * No modifica la posición del buffer de origen.
+     */
+    void append(int opcode, ByteBuffer payload) {
+        int start = buffer.position();
+        int payloadStart = start + headerSize(payload.remaining());
+        ensureCapacity(payloadStart + payload.remaining());
+        buffer.position(payloadStart);
+        buffer.put(payload.duplicate());
+
+        finishDataFrame(opcode, start, payloadStart);
+    }
+
+    /**
+     * Prepara un mensaje de datos para enviarlo en varios frames con
+     * {@link #appendFragment(int)}. Se codifica y, si procede, se comprime entero:
+     * permessage-deflate comprime por mensaje y solo el primer frame lleva RSV1.
+     *
+     * @param text  texto del mensaje, o null si es binario
+     * @param data  payload binario (no se modifica su posición) si {@code text} es null
+     */
+    void startFragmented(int opcode, String text, ByteBuffer data) {
+        message.clear();
+        if (text != null) {
+            ensureMessageCapacity(text.length() * 3);
+            utf8.reset();
+            utf8.encode(CharBuffer.wrap(text), message, true);
+            utf8.flush(message);
+        } else {
+            ensureMessageCapacity(data.remaining());
+            message.put(data.duplicate());
+        }
+        message.flip();
+
+        messageOpcode = opcode;
+        messageStarted = false;
+        messageCompressed = deflate != null && message.remaining() >= compressionThreshold;
+        // El resultado de compress() sigue siendo válido: no se comprime otro mensaje hasta acabar este
+        remaining = messageCompressed
+                ? deflate.compress(message.array(), 0, message.remaining())
+                : message;
+    }
+
+    /**
+     * Hay un mensaje fragmentado a medias.
+     */
+    boolean hasFragmentsPending() {
+        return remaining != null;
+    }
+
+    /**
+     * Añade al lote el siguiente fragmento (de hasta {@code maxLength} bytes) del mensaje
+     * preparado con {@link #startFragmented}. Entre fragmentos se pueden añadir frames de control.
+     *
+     * @return true si era el último fragmento
+     */
+    boolean appendFragment(int maxLength) {
+        int length = Math.min(maxLength, remaining.remaining());
+        boolean fin = length == remaining.remaining();
+
+        int start = buffer.position();
+        int payloadStart = start + headerSize(length);
+        ensureCapacity(payloadStart + length);
+        buffer.position(payloadStart);
+        int limit = remaining.limit();
+        remaining.limit(remaining.position() + length);
+        buffer.put(remaining);
+        remaining.limit(limit);
+
+        // El primer frame lleva el opcode y RSV1; el resto son continuaciones (0x0)
+        finishFrame(fin, messageStarted ? 0x0 : messageOpcode, !messageStarted && messageCompressed,
+                start, payloadStart);
+        messageStarted = true;
+
+        if (fin) {
+            abortFragmented();
+        }
+        return fin;
+    }
+
+    /**
+     * Descarta el mensaje fragmentado en curso (p. ej. al cerrar la conexión).
+     */
+    void abortFragmented() {
+        remaining = null;
+        if (message.capacity() > MAX_POOLED_CAPACITY) {
+            message = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * Devuelve el lote listo para escribir. Es válido hasta {@link #reset()}.
+     */
+    ByteBuffer batch() {
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Empieza un lote nuevo. Libera el buffer si creció por un mensaje grande,
+     * para no retener memoria.
+     */
+    void reset() {
+        buffer.clear();
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        if (deflate != null) {
+            deflate.trimDeflate();
+        }
+    }
+
+    /**
+     * Comprime el payload si procede (solo frames de datos), lo ajusta al tamaño real
+     * de la cabecera y cierra el frame.
+     *
+     * @param start        inicio del frame en el lote
+     * @param payloadStart donde se escribió el payload (position marca su final)
+     */
+    private void finishDataFrame(int opcode, int start, int payloadStart) {
+        int length = buffer.position() - payloadStart;
+        boolean rsv1 = false;
+
+        if (deflate != null && opcode < 0x8 && length >= compressionThreshold) {
+            // Con context takeover, una vez comprimido hay que enviarlo comprimido aunque no reduzca
+            ByteBuffer compressed = deflate.compress(buffer.array(), payloadStart, length);
+            length = compressed.remaining();
+            payloadStart = start + headerSize(length);
+            ensureCapacity(payloadStart + length);
+            buffer.position(payloadStart);
+            buffer.put(compressed);
+            rsv1 = true;
+        } else if (start + headerSize(length) != payloadStart) {
+            // Texto no ASCII que cambió de tramo de longitud: la cabecera real es mayor
+            int actualStart = start + headerSize(length);
+            ensureCapacity(actualStart + length);
+            System.arraycopy(buffer.array(), payloadStart, buffer.array(), actualStart, length);
+            payloadStart = actualStart;
+            buffer.position(actualStart + length);
+        }
+
+        finishFrame(true, opcode, rsv1, start, payloadStart);
+    }
+
+    /**
+     * Escribe la cabecera en [start, payloadStart) y enmascara el payload,
+     * que termina en la posición actual del buffer.
+     */
+    private void finishFrame(boolean fin, int opcode, boolean rsv1, int start, int payloadStart) {
+        int payloadEnd = buffer.position();
+        int length = payloadEnd - payloadStart;
+        int pos = start;
+
+        // First byte: FIN + RSV1 (mensaje comprimido) + opcode
+        buffer.put(pos++, (byte) ((fin ? 0x80 : 0) | (rsv1 ? 0x40 : 0) | opcode));
+
+        // Second byte: MASK + length (cliente siempre envía masked)
+        if (length < 126) {
+            buffer.put(pos++, (byte) (0x80 | length));
+        } else if (length < 65536) {
+            buffer.put(pos++, (byte) (0x80 | 126));
+            buffer.putShort(pos, (short) length);
+            pos += 2;
+        } else {
+            buffer.put(pos++, (byte) (0x80 | 127));
+            buffer.putLong(pos, length);
+            pos += 8;
+        }
+
+        int mask = random.nextInt();
+        buffer.putInt(pos, mask);
+
+        applyMask(buffer, payloadStart, payloadEnd, mask);
+    }
+
+    /**
+     * Tamaño de cabecera (con máscara) para un payload de {@code length} bytes.
+     */
+    private static int headerSize(int length) {
+        if (length >= 65536) return MAX_HEADER_SIZE;
+        if (length >= 126) return 2 + 2 + 4;
+        return 2 + 4;
+    }
+
+    /**
+     * Aplica la máscara XOR sobre [from, to) procesando 8 bytes por iteración.
+     * El orden de bytes por defecto (big-endian) coincide con el orden de la máscara en el frame.
+     */
+    static void applyMask(ByteBuffer buf, int from, int to, int mask) {
+        long wideMask = ((long) mask << 32) | (mask & 0xFFFFFFFFL);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            buf.putLong(i, buf.getLong(i) ^ wideMask);
+        }
+        for (; i < to; i++) {
+            int shift = 24 - 8 * ((i - from) & 3);
+            buf.put(i, (byte) (buf.get(i) ^ (mask >>> shift)));
+        }
+    }
+
+    private void ensureMessageCapacity(int capacity) {
+        if (message.capacity() < capacity) {
+            message = ByteBuffer.allocate(capacity);
+        }
+    }
+
+    /**
+     * Garantiza la capacidad conservando los frames ya codificados del lote.
+     */
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() < capacity) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            System.arraycopy(buffer.array(), 0, grown.array(), 0, buffer.position());
+            grown.position(buffer.position());
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.yarvis.assistant.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser byte a byte de la respuesta HTTP al upgrade WebSocket.
+ *
+ * Trabaja sobre el mismo buffer de lectura que el {@link FrameDecoder}: consume exactamente
+ * hasta el CRLFCRLF que cierra los headers y deja el resto en el buffer. Así los frames que
+ * el servidor envía pegados a la respuesta 101 (p. ej. auth_response) no se pierden,
+ * cosa que sí pasaba con un BufferedReader que lee por adelantado.
+ *
+ * Si la respuesta llega en varias lecturas, recuerda hasta dónde buscó para no volver a
+ * recorrer los bytes ya vistos.
+ */
+final class HandshakeParser {
+
+    private int scanned;
+    private String statusLine;
+    private String headers;
+
+    /**
+     * Busca el final de los headers en {@code in} (en modo lectura).
+     *
+     * @return true si la respuesta está completa; {@code in} queda posicionado justo después
+     * @throws IOException si el buffer se llenó sin encontrar el final de los headers
+     */
+    boolean parse(ByteBuffer in) throws IOException {
+        int start = in.position();
+        int end = -1;
+        for (int i = Math.max(start, start + scanned - 3); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n'
+                    && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i;
+                break;
+            }
+        }
+
+        if (end == -1) {
+            scanned = in.remaining();
+            if (in.limit() == in.capacity() && start == 0) {
+                throw new IOException("Handshake response too large");
+            }
+            return false;
+        }
+
+        String response = new String(in.array(), in.arrayOffset() + start, end - start,
+                StandardCharsets.ISO_8859_1);
+        in.position(end + 4);
+        scanned = 0;
+
+        int firstLineEnd = response.indexOf("\r\n");
+        statusLine = firstLineEnd == -1 ? response : response.substring(0, firstLineEnd);
+        headers = firstLineEnd == -1 ? "" : response.substring(firstLineEnd + 2);
+        return true;
+    }
+
+    /**
+     * Línea de estado, p. ej. {@code HTTP/1.1 101 Switching Protocols}.
+     */
+    String getStatusLine() {
+        return statusLine;
+    }
+
+    /**
+     * Headers de la respuesta separados por CRLF.
+     */
+    String getHeaders() {
+        return headers;
+    }
+
+    void reset() {
+        scanned = 0;
+        statusLine = null;
+        headers = null;
+    }
+}
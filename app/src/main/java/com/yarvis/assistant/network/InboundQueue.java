@@ -0,0 +1,149 @@
+package com.yarvis.assistant.network;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de entrada acotada entre el lector del transporte (productor) y el despacho
+ * a los listeners (consumidor).
+ *
+ * Al llegar a la capacidad pide pausar la lectura del socket, de modo que la
+ * contrapresión de TCP llega al servidor en lugar de acumular mensajes en memoria.
+ * Cuando el consumidor la vacía hasta el umbral de reanudación, pide reanudarla.
+ * Los mensajes que ya estaban en el buffer de lectura se siguen encolando, así que
+ * la capacidad puede superarse en lo que cabe en una lectura.
+ */
+final class InboundQueue {
+
+    static final int DEFAULT_CAPACITY = 256;
+    static final int DEFAULT_RESUME_THRESHOLD = 64;
+
+    interface FlowListener {
+        void onReadPausedChanged(boolean paused);
+    }
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final FlowListener listener;
+
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile int resumeThreshold = DEFAULT_RESUME_THRESHOLD;
+
+    // Estado de pausa y métricas; las transiciones van bajo el monitor para que
+    // pausa y reanudación lleguen al transporte en el mismo orden en que ocurren
+    private boolean paused;
+    private long pauseStartNanos;
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final AtomicLong pausedNanos = new AtomicLong();
+
+    InboundQueue(FlowListener listener) {
+        this.listener = listener;
+    }
+
+    void setLimits(int capacity, int resumeThreshold) {
+        if (resumeThreshold < 0 || resumeThreshold >= capacity) {
+            throw new IllegalArgumentException("Expected 0 <= resumeThreshold < capacity");
+        }
+        this.capacity = capacity;
+        this.resumeThreshold = resumeThreshold;
+    }
+
+    /**
+     * Encola un mensaje. Solo desde el hilo lector.
+     *
+     * @return true si la cola estaba vacía (hay que programar el despacho)
+     */
+    boolean offer(String message) {
+        queue.add(message);
+        int current = depth.incrementAndGet();
+
+        int max;
+        while (current > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, current)) {
+            // Reintenta hasta fijar el máximo
+        }
+
+        if (current >= capacity) {
+            synchronized (this) {
+                if (!paused && depth.get() >= capacity) {
+                    paused = true;
+                    pauseStartNanos = System.nanoTime();
+                    pauseCount.incrementAndGet();
+                    listener.onReadPausedChanged(true);
+                }
+            }
+        }
+        return current == 1;
+    }
+
+    /**
+     * Saca el siguiente mensaje, o null. Solo desde el consumidor.
+     */
+    String poll() {
+        String message = queue.poll();
+        if (message != null && depth.decrementAndGet() <= resumeThreshold) {
+            resumeIfPaused();
+        }
+        return message;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Descarta lo pendiente (p. ej. al perder la conexión) y reanuda la lectura.
+     */
+    void clear() {
+        while (queue.poll() != null) {
+            depth.decrementAndGet();
+        }
+        resumeIfPaused();
+    }
+
+    /**
+     * Vuelve a pedir la pausa si está en curso, p. ej. a un transporte nuevo. Bajo el
+     * monitor, para no cruzarse con una reanudación.
+     */
+    synchronized void reapplyPause() {
+        if (paused) {
+            listener.onReadPausedChanged(true);
+        }
+    }
+
+    private synchronized void resumeIfPaused() {
+        if (paused && depth.get() <= resumeThreshold) {
+            paused = false;
+            pausedNanos.addAndGet(System.nanoTime() - pauseStartNanos);
+            listener.onReadPausedChanged(false);
+        }
+    }
+
+    synchronized boolean isPaused() {
+        return paused;
+    }
+
+    int getDepth() {
+        return depth.get();
+    }
+
+    int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    /**
+     * Tiempo total con la lectura pausada, incluida la pausa en curso.
+     */
+    synchronized long getPausedMillis() {
+        long total = pausedNanos.get();
+        if (paused) {
+            total += System.nanoTime() - pauseStartNanos;
+        }
+        return total / 1_000_000;
+    }
+}
@@ -0,0 +1,107 @@
+package com.yarvis.assistant.network;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias con nombre, p. ej. la espera de los mensajes en la cola de
+ * salida. {@link RttHistogram} es el de los round-trip times de ping/pong.
+ *
+ * Usa cubos fijos en milisegundos (1, 2, 5, 10, 20, 50... hasta 10 s, más un cubo de
+ * desbordamiento), así que registrar una muestra no reserva memoria y se puede hacer
+ * desde el hilo lector mientras otro hilo consulta los percentiles.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BUCKET_LIMITS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS_MS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+    private volatile long lastMicros;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Qué se mide, p. ej. "RTT" o "Wait BULK"; encabeza {@link #toString()}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        long millis = micros / 1000;
+
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && millis >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+        lastMicros = micros;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Última medida en milisegundos, o -1 si aún no hay ninguna.
+     */
+    public double getLastMillis() {
+        return count.get() == 0 ? -1 : lastMicros / 1000.0;
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : sumMicros.get() / 1000.0 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Cota superior del percentil indicado (0-100) según los cubos, en milisegundos.
+     * Devuelve {@link Long#MAX_VALUE} si cae en el cubo de desbordamiento.
+     */
+    public long getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+
+        long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) return BUCKET_LIMITS_MS[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+        lastMicros = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s n=%d last=%.1fms mean=%.1fms p50<=%dms p95<=%dms max=%.1fms",
+                name, getCount(), getLastMillis(), getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(95), getMaxMillis());
+    }
+}
@@ -0,0 +1,280 @@
+package com.yarvis.assistant.network;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transporte en memoria que conecta el cliente con un {@link Server} del mismo proceso,
+ * sin sockets, framing ni codificación: los String y ByteBuffer pasan por referencia.
+ *
+ * Sirve para medir el rendimiento del cliente (parseo de mensajes y cadena de listeners)
+ * sin red. Cada mensaje se entrega en el hilo que lo envía, antes de que vuelva la llamada,
+ * así que el coste medido es solo el del código que lo recibe.
+ *
+ * Con la lectura pausada, lo que envía el servidor se acumula y se entrega al reanudar,
+ * como haría el buffer del socket.
+ */
+public final class LoopbackTransport implements WebSocketTransport {
+
+    /**
+     * Lado servidor de una conexión en memoria. Se invoca en el hilo del cliente que envía.
+     */
+    public interface Server {
+        /**
+         * Se invoca antes del onOpen del cliente: lo que se envíe aquí le llega antes.
+         */
+        void onOpen(Peer peer);
+        void onMessage(Peer peer, String message);
+
+        /**
+         * El buffer solo es válido durante la llamada.
+         */
+        default void onBinary(Peer peer, ByteBuffer data) {
+        }
+
+        default void onClose(Peer peer, int code, String reason) {
+        }
+
+        /**
+         * Ping de protocolo del cliente. Por defecto se contesta en el acto; un servidor
+         * puede llamar a {@link Peer#pong()} más tarde para simular latencia, o no
+         * llamarlo para simular una conexión muerta.
+         */
+        default void onPing(Peer peer) {
+            peer.pong();
+        }
+    }
+
+    /**
+     * Extremo del servidor: lo que se envía aquí llega al callback del cliente.
+     */
+    public final class Peer {
+
+        private Peer() {
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return false si la conexión ya está cerrada
+         */
+        public boolean send(String message) {
+            return deliver(message);
+        }
+
+        /**
+         * El cliente recibe una vista de solo lectura del buffer, válida durante la llamada
+         * (una copia si la lectura está pausada).
+         */
+        public boolean sendBinary(ByteBuffer data) {
+            return deliver(data.asReadOnlyBuffer());
+        }
+
+        /**
+         * true mientras el cliente tenga la lectura pausada.
+         */
+        public boolean isReadPaused() {
+            synchronized (LoopbackTransport.this) {
+                return readPaused;
+            }
+        }
+
+        /**
+         * Contesta al ping pendiente. El RTT que se registra es el tiempo transcurrido
+         * desde el ping.
+         *
+         * @return false si no hay ping pendiente o la conexión está cerrada
+         */
+        public boolean pong() {
+            long start;
+            synchronized (LoopbackTransport.this) {
+                if (!pingPending || !open.get()) return false;
+                pingPending = false;
+                start = pingStartNanos;
+            }
+            long rtt = System.nanoTime() - start;
+            rttHistogram.record(rtt);
+            callback.onPong(rtt);
+            return true;
+        }
+
+        /**
+         * Cierra la conexión desde el servidor.
+         */
+        public void close(int code, String reason) {
+            if (open.compareAndSet(true, false)) {
+                callback.onClose(code, reason);
+            }
+        }
+    }
+
+    /**
+     * Fábrica que conecta cada transporte nuevo con {@code server}.
+     */
+    public static Factory factory(Server server) {
+        return (uri, callback) -> new LoopbackTransport(uri, callback, server);
+    }
+
+    private final URI uri;
+    private final Callback callback;
+    private final Server server;
+    private final Peer peer = new Peer();
+    private final AtomicBoolean open = new AtomicBoolean(false);
+    private final RttHistogram rttHistogram = new RttHistogram();
+    private final LatencyHistogram queueWaitHistogram = new LatencyHistogram("Wait");
+    private final ConnectTimings timings = new ConnectTimings();
+
+    // Mensajes del servidor retenidos mientras la lectura está pausada
+    private final ArrayDeque<Object> backlog = new ArrayDeque<>();
+    private boolean readPaused;
+    private boolean flushing;
+    // Ping enviado y aún sin pong
+    private boolean pingPending;
+    private long pingStartNanos;
+
+    public LoopbackTransport(URI uri, Callback callback, Server server) {
+        this.uri = uri;
+        this.callback = callback;
+        this.server = server;
+    }
+
+    @Override
+    public void connect() {
+        if (!open.compareAndSet(false, true)) return;
+        server.onOpen(peer);
+        callback.onOpen();
+    }
+
+    @Override
+    public boolean send(String message) {
+        if (!open.get()) return false;
+        server.onMessage(peer, message);
+        return true;
+    }
+
+    @Override
+    public boolean send(String message, Priority priority) {
+        // Sin cola: todo se entrega en el acto
+        return send(message);
+    }
+
+    @Override
+    public boolean sendBinary(ByteBuffer data) {
+        if (!open.get()) return false;
+        // Entrega síncrona: el llamador puede reutilizar el buffer al volver
+        server.onBinary(peer, data.asReadOnlyBuffer());
+        return true;
+    }
+
+    @Override
+    public boolean sendPing() {
+        if (!open.get()) return false;
+        synchronized (this) {
+            // Con un ping sin contestar, el RTT se sigue midiendo desde el primero
+            if (!pingPending) {
+                pingPending = true;
+                pingStartNanos = System.nanoTime();
+            }
+        }
+        server.onPing(peer);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (open.compareAndSet(true, false)) {
+            server.onClose(peer, 1000, "");
+            callback.onClose(1000, "");
+        }
+    }
+
+    @Override
+    public synchronized void pauseReading() {
+        readPaused = true;
+    }
+
+    @Override
+    public void resumeReading() {
+        synchronized (this) {
+            readPaused = false;
+            if (flushing) return;
+            flushing = true;
+        }
+        // Se entrega fuera del monitor: el callback puede volver a pausar la lectura
+        while (true) {
+            Object message;
+            synchronized (this) {
+                if (readPaused || backlog.isEmpty() || !open.get()) {
+                    flushing = false;
+                    return;
+                }
+                message = backlog.poll();
+            }
+            deliverNow(message);
+        }
+    }
+
+    private boolean deliver(Object message) {
+        synchronized (this) {
+            if (!open.get()) return false;
+            // Mientras haya retenidos, los nuevos van detrás para conservar el orden
+            if (readPaused || flushing || !backlog.isEmpty()) {
+                backlog.add(message instanceof ByteBuffer ? copy((ByteBuffer) message) : message);
+                return true;
+            }
+        }
+        deliverNow(message);
+        return true;
+    }
+
+    private void deliverNow(Object message) {
+        if (message instanceof String) {
+            callback.onMessage((String) message);
+        } else {
+            callback.onBinary(((ByteBuffer) message).asReadOnlyBuffer());
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer data) {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        return copy;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return open.get();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return true;
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return 0;
+    }
+
+    @Override
+    public RttHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    /**
+     * Sin cola de salida: siempre vacío.
+     */
+    @Override
+    public LatencyHistogram getQueueWaitHistogram(Priority priority) {
+        return queueWaitHistogram;
+    }
+
+    @Override
+    public ConnectTimings getConnectTimings() {
+        return timings;
+    }
+}
@@ -0,0 +1,40 @@
+package com.yarvis.assistant.network;
+
+import android.os.Handler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executor del hilo principal que agrupa las tareas: mientras haya un post pendiente, las
+ * nuevas se encolan detrás y se ejecutan todas en él. Una ráfaga de eventos para la UI
+ * cuesta así un único mensaje del looper en lugar de uno por evento.
+ */
+final class MainThreadBatcher implements Executor {
+
+    private final Handler handler;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    MainThreadBatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.post(this::drain);
+        }
+    }
+
+    private void drain() {
+        // Antes de vaciar: lo que llegue a partir de aquí o entra en este lote o pide otro post
+        scheduled.set(false);
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+}
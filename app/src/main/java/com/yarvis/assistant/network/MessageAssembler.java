@@ -0,0 +1,261 @@
+package com.yarvis.assistant.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entrega los mensajes de datos al callback y reensambla los fragmentados
+ * (frame inicial con FIN=0 + frames de continuación).
+ *
+ * Por defecto acumula los fragmentos en un buffer reutilizable que crece hasta
+ * {@link #setMaxMessageSize(int)} y entrega el mensaje completo con {@code onMessage}
+ * (texto) u {@code onBinary} (binario). Si el callback acepta fragmentos de texto
+ * ({@link WebSocketTransport.Callback#acceptsMessageFragments}), cada trozo se decodifica
+ * y se entrega en cuanto llega, sin retener el mensaje entero; el total entregado
+ * tampoco puede superar el tamaño máximo.
+ *
+ * Todo el texto se decodifica con un único CharsetDecoder y un CharBuffer reutilizable.
+ */
+final class MessageAssembler {
+
+    static final int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private final WebSocketTransport.Callback callback;
+    // El callback quiere el texto fragmentado trozo a trozo
+    private final boolean streamText;
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+    private boolean inProgress;
+    private boolean binary;
+    private boolean compressed;
+    private boolean streaming;
+    // Bytes ya entregados del mensaje que se está entregando por trozos
+    private long streamedBytes;
+
+    // permessage-deflate negociado (null si no hay compresión)
+    private PerMessageDeflate deflate;
+
+    MessageAssembler(WebSocketTransport.Callback callback) {
+        this.callback = callback;
+        this.streamText = callback.acceptsMessageFragments();
+    }
+
+    void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    void setDeflate(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+    }
+
+    boolean inProgress() {
+        return inProgress;
+    }
+
+    /**
+     * Mensaje completo en un único frame (FIN=1).
+     *
+     * @param rsv1 el mensaje viene comprimido con permessage-deflate
+     */
+    void deliverFrame(int opcode, boolean rsv1, ByteBuffer payload) throws WebSocketProtocolException {
+        if (inProgress) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "Data frame inside fragmented message");
+        }
+
+        if (rsv1) {
+            requireDeflate();
+            deliver(opcode == 0x2, decompress(payload));
+            deflate.trimInflate();
+        } else {
+            deliver(opcode == 0x2, payload);
+        }
+    }
+
+    /**
+     * Primer frame de un mensaje fragmentado (opcode 0x1 o 0x2 con FIN=0).
+     *
+     * @param rsv1 el mensaje viene comprimido con permessage-deflate
+     */
+    void start(int opcode, boolean rsv1, ByteBuffer payload) throws WebSocketProtocolException {
+        if (inProgress) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "New message before previous fragmented message finished");
+        }
+        if (rsv1) {
+            requireDeflate();
+        }
+        inProgress = true;
+        binary = opcode == 0x2;
+        compressed = rsv1;
+        buffer.clear();
+        utf8.reset();
+
+        // Los mensajes comprimidos siempre se acumulan para descomprimirlos de una vez
+        streaming = streamText && !binary && !compressed;
+        if (streaming) {
+            streamedBytes = 0;
+            deliverChunk(payload, false);
+        } else {
+            accumulate(payload);
+        }
+    }
+
+    /**
+     * Frame de continuación (opcode 0x0).
+     */
+    void append(ByteBuffer payload, boolean fin) throws WebSocketProtocolException {
+        if (!inProgress) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "Continuation frame without a message in progress");
+        }
+
+        if (streaming) {
+            deliverChunk(payload, fin);
+        } else {
+            accumulate(payload);
+            if (fin) {
+                buffer.flip();
+                if (compressed) {
+                    deliver(binary, decompress(buffer));
+                    deflate.trimInflate();
+                } else {
+                    deliver(binary, buffer);
+                }
+            }
+        }
+
+        if (fin) {
+            reset();
+        }
+    }
+
+    /**
+     * Descarta el mensaje en curso (p. ej. al cerrar la conexión).
+     */
+    void reset() {
+        inProgress = false;
+        binary = false;
+        compressed = false;
+        streaming = false;
+        streamedBytes = 0;
+        buffer.clear();
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        if (chars.capacity() > MAX_POOLED_CAPACITY) {
+            chars = CharBuffer.allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    private void deliver(boolean binary, ByteBuffer data) {
+        if (binary) {
+            // Vista de solo lectura del buffer reutilizable, válida durante la llamada
+            callback.onBinary(data.asReadOnlyBuffer());
+        } else {
+            callback.onMessage(decodeText(data));
+        }
+    }
+
+    private void deliverChunk(ByteBuffer payload, boolean last) throws WebSocketProtocolException {
+        streamedBytes += payload.remaining();
+        if (streamedBytes > maxMessageSize) {
+            reset();
+            throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Message exceeds " + maxMessageSize + " bytes");
+        }
+        callback.onMessageFragment(decodeChunk(payload, last), last);
+    }
+
+    private ByteBuffer decompress(ByteBuffer data) throws WebSocketProtocolException {
+        return deflate.decompress(data.array(), data.arrayOffset() + data.position(),
+                data.remaining(), maxMessageSize);
+    }
+
+    private void requireDeflate() throws WebSocketProtocolException {
+        if (deflate == null) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "Compressed frame without permessage-deflate");
+        }
+    }
+
+    private void accumulate(ByteBuffer payload) throws WebSocketProtocolException {
+        if ((long) buffer.position() + payload.remaining() > maxMessageSize) {
+            reset();
+            throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Message exceeds " + maxMessageSize + " bytes");
+        }
+        ensureRemaining(payload.remaining(), maxMessageSize);
+        buffer.put(payload);
+    }
+
+    private void ensureRemaining(int length, int maxCapacity) {
+        if (buffer.remaining() < length) {
+            int required = buffer.position() + length;
+            int capacity = Math.max(required, Math.min(buffer.capacity() * 2, maxCapacity));
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Decodifica un mensaje de texto completo reutilizando decoder y CharBuffer.
+     */
+    private String decodeText(ByteBuffer data) {
+        // UTF-8 nunca produce más chars que bytes
+        if (chars.capacity() < data.remaining()) {
+            chars = CharBuffer.allocate(data.remaining());
+        }
+        chars.clear();
+        utf8.reset();
+        utf8.decode(data, chars, true);
+        utf8.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+
+    /**
+     * Decodifica un trozo conservando en el buffer los bytes de un carácter UTF-8
+     * partido entre dos frames, para completarlo con el siguiente.
+     */
+    private String decodeChunk(ByteBuffer payload, boolean last) {
+        ByteBuffer in;
+        if (buffer.position() > 0) {
+            ensureRemaining(payload.remaining(), Integer.MAX_VALUE);
+            buffer.put(payload);
+            buffer.flip();
+            in = buffer;
+        } else {
+            in = payload;
+        }
+
+        if (chars.capacity() < in.remaining() + 1) {
+            chars = CharBuffer.allocate(in.remaining() + 1);
+        }
+        chars.clear();
+        utf8.decode(in, chars, last);
+        if (last) {
+            utf8.flush(chars);
+        }
+
+        ByteBuffer carry = in.slice();
+        buffer.clear();
+        buffer.put(carry);
+
+        chars.flip();
+        return chars.toString();
+    }
+}
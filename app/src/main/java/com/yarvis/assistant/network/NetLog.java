@@ -0,0 +1,87 @@
+package com.yarvis.assistant.network;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log de la capa de red. En Android va a {@code android.util.Log}; fuera de Android (p. ej.
+ * midiendo el cliente con {@link LoopbackTransport} en una JVM normal) va a
+ * {@code java.util.logging}, donde los mensajes de depuración no salen por defecto.
+ *
+ * {@link #setSink} permite redirigirlo o silenciarlo, para que el log no entre en lo
+ * que se mide.
+ */
+public final class NetLog {
+
+    /**
+     * Destino de los mensajes. {@code throwable} puede ser null.
+     */
+    public interface Sink {
+        void log(Level level, String tag, String message, Throwable throwable);
+    }
+
+    /** Descarta todo. */
+    public static final Sink SILENT = (level, tag, message, throwable) -> { };
+
+    private static volatile Sink sink = defaultSink();
+
+    private NetLog() {
+    }
+
+    /**
+     * null vuelve al destino por defecto.
+     */
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : defaultSink();
+    }
+
+    static void d(String tag, String message) {
+        sink.log(Level.FINE, tag, message, null);
+    }
+
+    static void i(String tag, String message) {
+        sink.log(Level.INFO, tag, message, null);
+    }
+
+    static void w(String tag, String message) {
+        sink.log(Level.WARNING, tag, message, null);
+    }
+
+    static void w(String tag, String message, Throwable throwable) {
+        sink.log(Level.WARNING, tag, message, throwable);
+    }
+
+    static void e(String tag, String message) {
+        sink.log(Level.SEVERE, tag, message, null);
+    }
+
+    static void e(String tag, String message, Throwable throwable) {
+        sink.log(Level.SEVERE, tag, message, throwable);
+    }
+
+    private static Sink defaultSink() {
+        try {
+            Class.forName("android.util.Log");
+            return new AndroidSink();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return (level, tag, message, throwable) ->
+                    Logger.getLogger(tag).logp(level, tag, null, message, throwable);
+        }
+    }
+
+    // Clase aparte: solo se carga (y resuelve android.util.Log) si existe
+    private static final class AndroidSink implements Sink {
+        @Override
+        public void log(Level level, String tag, String message, Throwable throwable) {
+            if (level == Level.SEVERE) {
+                android.util.Log.e(tag, message, throwable);
+            } else if (level == Level.WARNING) {
+                android.util.Log.w(tag, message, throwable);
+            } else if (level == Level.INFO) {
+                android.util.Log.i(tag, message, throwable);
+            } else {
+                android.util.Log.d(tag, message, throwable);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.yarvis.assistant.network;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event loop NIO compartido por todas las conexiones WebSocket no bloqueantes.
+ *
+ * Un único hilo atiende un Selector con todos los canales registrados, de modo que
+ * varias conexiones (o reconexiones en cadena) no dejan hilos bloqueados por socket.
+ * Todo el estado de un canal se toca solo desde este hilo; el resto de hilos
+ * encola trabajo con {@link #execute(Runnable)} o lo programa con
+ * {@link #schedule(Runnable, long)}.
+ */
+final class NioEventLoop implements Runnable {
+
+    private static final String TAG = "NioEventLoop";
+
+    private static NioEventLoop shared;
+
+    /**
+     * Tarea programada con {@link #schedule(Runnable, long)}. Se puede cancelar desde
+     * cualquier hilo; si ya se ejecutó, cancelar no tiene efecto.
+     */
+    static final class Timer implements Comparable<Timer> {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private volatile boolean cancelled;
+
+        private Timer(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(deadlineNanos, other.deadlineNanos);
+        }
+    }
+
+    /**
+     * Eventos de un canal registrado. Se invocan siempre desde el hilo del loop.
+     */
+    interface Handler {
+        void onConnectable() throws IOException;
+        void onReadable() throws IOException;
+        void onWritable() throws IOException;
+        void onFailure(IOException e);
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+    // La resolución DNS es bloqueante, así que no se hace en el hilo del loop
+    private final ExecutorService resolver = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "yarvis-nio-resolver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "yarvis-nio-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Obtiene el loop compartido del proceso, creándolo la primera vez.
+     */
+    static synchronized NioEventLoop shared() throws IOException {
+        if (shared == null) {
+            shared = new NioEventLoop();
+        }
+        return shared;
+    }
+
+    /**
+     * Ejecuta una tarea en el hilo del loop.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Ejecuta una tarea bloqueante (p. ej. DNS) fuera del hilo del loop.
+     */
+    void executeBlocking(Runnable task) {
+        resolver.execute(task);
+    }
+
+    /**
+     * Ejecuta una tarea en el hilo del loop dentro de {@code delayMs} milisegundos.
+     */
+    Timer schedule(Runnable task, long delayMs) {
+        Timer timer = new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs), task);
+        execute(() -> timers.add(timer));
+        return timer;
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Registra un canal no bloqueante. Debe llamarse desde el hilo del loop.
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                long timeout = nextTimerDelayMs();
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else if (timeout == 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select();
+                }
+                runTasks();
+                runTimers();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    dispatch(key);
+                }
+            } catch (Throwable t) {
+                // El loop es compartido: un fallo aislado no puede tumbar al resto de conexiones
+                NetLog.e(TAG, "Event loop error: " + t.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                NetLog.e(TAG, "Task error: " + t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return milisegundos hasta el próximo timer, 0 si ya venció o -1 si no hay ninguno
+     */
+    private long nextTimerDelayMs() {
+        Timer next = timers.peek();
+        if (next == null) return -1;
+        long delay = next.deadlineNanos - System.nanoTime();
+        // select(timeout) trata 0 como infinito: se redondea hacia arriba
+        return delay <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + 999_999));
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadlineNanos <= now) {
+            timers.poll();
+            if (timer.cancelled) continue;
+            try {
+                timer.task.run();
+            } catch (Throwable t) {
+                NetLog.e(TAG, "Timer error: " + t.getMessage());
+            }
+        }
+    }
+
+    private void dispatch(SelectionKey key) {
+        Handler handler = (Handler) key.attachment();
+        try {
+            if (!key.isValid()) return;
+            int ready = key.readyOps();
+            if ((ready & SelectionKey.OP_CONNECT) != 0) {
+                handler.onConnectable();
+            }
+            if (key.isValid() && (ready & SelectionKey.OP_WRITE) != 0) {
+                handler.onWritable();
+            }
+            if (key.isValid() && (ready & SelectionKey.OP_READ) != 0) {
+                handler.onReadable();
+            }
+        } catch (CancelledKeyException ignored) {
+            // La conexión se cerró mientras se procesaban sus eventos
+        } catch (IOException e) {
+            handler.onFailure(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.yarvis.assistant.network;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Agrupa las notificaciones que llegan en una ventana de tiempo en un único
+ * {@link WebSocketMessage.NotificationBatch}: un grupo de chat que no para cuesta una
+ * llamada al agente en lugar de una por mensaje.
+ *
+ * La ventana empieza con la primera notificación y se cierra a los {@code windowMs}, o
+ * antes si ya hay {@code maxItems} pares app/título distintos. Las repetidas de un mismo
+ * par se quedan con el texto más reciente y cuentan cuántas llegaron.
+ */
+final class NotificationBatcher {
+
+    static final long DEFAULT_WINDOW_MS = 2000;
+    static final int DEFAULT_MAX_ITEMS = 20;
+
+    private static final class Entry {
+        final String app;
+        final String title;
+        String text;
+        int count;
+        long timestamp;
+
+        Entry(String app, String title) {
+            this.app = app;
+            this.title = title;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<WebSocketMessage.NotificationBatch> sender;
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private boolean production;
+    private ScheduledFuture<?> flushTask;
+    private long windowMs = DEFAULT_WINDOW_MS;
+    private int maxItems = DEFAULT_MAX_ITEMS;
+
+    NotificationBatcher(ScheduledExecutorService scheduler,
+                        Consumer<WebSocketMessage.NotificationBatch> sender) {
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    /**
+     * Con {@code windowMs} 0 cada notificación sale sola, sin esperar.
+     */
+    synchronized void setLimits(long windowMs, int maxItems) {
+        if (windowMs < 0 || maxItems < 1) {
+            throw new IllegalArgumentException("Expected windowMs >= 0 and maxItems >= 1");
+        }
+        this.windowMs = windowMs;
+        this.maxItems = maxItems;
+    }
+
+    void add(WebSocketMessage.NotificationMessage message) {
+        WebSocketMessage.NotificationBatch ready = null;
+        synchronized (this) {
+            String key = message.app + '\u0000' + message.title;
+            Entry entry = pending.get(key);
+            if (entry == null) {
+                entry = new Entry(message.app, message.title);
+                pending.put(key, entry);
+            }
+            entry.text = message.text;
+            entry.count++;
+            entry.timestamp = System.currentTimeMillis();
+            production = message.production;
+
+            if (windowMs == 0 || pending.size() >= maxItems) {
+                ready = drain();
+            } else if (flushTask == null && !scheduler.isShutdown()) {
+                flushTask = scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (ready != null) {
+            sender.accept(ready);
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Envía ya lo pendiente, sin esperar a que se cierre la ventana.
+     */
+    void flush() {
+        WebSocketMessage.NotificationBatch ready;
+        synchronized (this) {
+            ready = drain();
+        }
+        if (ready != null) {
+            sender.accept(ready);
+        }
+    }
+
+    private WebSocketMessage.NotificationBatch drain() {
+        cancelFlush();
+        if (pending.isEmpty()) return null;
+        List<WebSocketMessage.NotificationBatch.Item> items = new ArrayList<>(pending.size());
+        for (Entry entry : pending.values()) {
+            items.add(new WebSocketMessage.NotificationBatch.Item(
+                    entry.app, entry.title, entry.text, entry.count, entry.timestamp));
+        }
+        pending.clear();
+        return new WebSocketMessage.NotificationBatch(items, production);
+    }
+
+    private void cancelFlush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.yarvis.assistant.network;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Limita el ritmo de reenvío de notificaciones con un {@link TokenBucket}, para que la
+ * ráfaga de un grupo de chat muy activo no ocupe la conexión. Se aplica a los lotes que
+ * salen de {@link NotificationBatcher}: cada lote, con una o muchas notificaciones,
+ * gasta un token.
+ *
+ * Sin tokens, según la política, el lote se descarta o se retiene. Lo retenido se fusiona
+ * por app y título (queda el texto más reciente, en la posición del primero, y se suman
+ * las cuentas) y sale como un único lote en el planificador cuando vuelve a haber token.
+ */
+final class NotificationThrottle {
+
+    private static final String TAG = "NotificationThrottle";
+
+    static final double DEFAULT_RATE_PER_SECOND = 0.5;
+    static final int DEFAULT_BURST = 5;
+    // Pares app/título retenidos como máximo; al superarlo se descarta el más antiguo
+    static final int MAX_HELD = 50;
+
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<WebSocketMessage.NotificationBatch> sender;
+    private final LinkedHashMap<String, WebSocketMessage.NotificationBatch.Item> held = new LinkedHashMap<>();
+    private boolean heldProduction;
+    private TokenBucket bucket = new TokenBucket(DEFAULT_RATE_PER_SECOND, DEFAULT_BURST);
+    private YarvisWebSocketClient.NotificationOverflow policy = YarvisWebSocketClient.NotificationOverflow.MERGE;
+    private ScheduledFuture<?> flushTask;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    NotificationThrottle(ScheduledExecutorService scheduler,
+                         Consumer<WebSocketMessage.NotificationBatch> sender) {
+        this.scheduler = scheduler;
+        this.sender = sender;
+    }
+
+    synchronized void setRate(double ratePerSecond, int burst) {
+        bucket = new TokenBucket(ratePerSecond, burst);
+    }
+
+    synchronized void setPolicy(YarvisWebSocketClient.NotificationOverflow policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return true si se puede enviar ya; si no, ha quedado retenido o descartado
+     */
+    synchronized boolean tryAcquire(WebSocketMessage.NotificationBatch batch) {
+        // Con retenidas pendientes, las nuevas van detrás para no adelantarlas
+        if (held.isEmpty() && bucket.tryAcquire()) {
+            return true;
+        }
+        if (policy == YarvisWebSocketClient.NotificationOverflow.DROP) {
+            for (WebSocketMessage.NotificationBatch.Item item : batch.notifications) {
+                dropped.addAndGet(item.count);
+            }
+            NetLog.d(TAG, "Rate limited, dropped batch of " + batch.notifications.size() + " app/title pairs");
+            return false;
+        }
+
+        for (WebSocketMessage.NotificationBatch.Item item : batch.notifications) {
+            hold(item);
+        }
+        heldProduction = batch.production;
+        scheduleFlush();
+        return false;
+    }
+
+    private void hold(WebSocketMessage.NotificationBatch.Item item) {
+        String key = item.app + '\u0000' + item.title;
+        WebSocketMessage.NotificationBatch.Item previous = held.get(key);
+        if (previous != null) {
+            held.put(key, new WebSocketMessage.NotificationBatch.Item(
+                    item.app, item.title, item.text, previous.count + item.count, item.timestamp));
+            merged.addAndGet(item.count);
+            return;
+        }
+        held.put(key, item);
+        if (held.size() > MAX_HELD) {
+            Iterator<WebSocketMessage.NotificationBatch.Item> eldest = held.values().iterator();
+            dropped.addAndGet(eldest.next().count);
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Olvida lo retenido (p. ej. al destruir el cliente).
+     */
+    synchronized void clear() {
+        held.clear();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+
+    synchronized int getHeldCount() {
+        return held.size();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getMergedCount() {
+        return merged.get();
+    }
+
+    private void flush() {
+        WebSocketMessage.NotificationBatch ready;
+        synchronized (this) {
+            flushTask = null;
+            if (held.isEmpty()) return;
+            if (!bucket.tryAcquire()) {
+                scheduleFlush();
+                return;
+            }
+            List<WebSocketMessage.NotificationBatch.Item> items = new ArrayList<>(held.values());
+            held.clear();
+            ready = new WebSocketMessage.NotificationBatch(items, heldProduction);
+        }
+        sender.accept(ready);
+    }
+
+    private void scheduleFlush() {
+        if (flushTask != null || scheduler.isShutdown()) return;
+        flushTask = scheduler.schedule(this::flush, bucket.nanosUntilAvailable(), TimeUnit.NANOSECONDS);
+    }
+}
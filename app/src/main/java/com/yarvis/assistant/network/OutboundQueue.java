@@ -0,0 +1,217 @@
+package com.yarvis.assistant.network;
+
+import com.yarvis.assistant.network.WebSocketTransport.Priority;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida acotada: varios productores (send desde cualquier hilo) y un único
+ * consumidor (el escritor de la conexión).
+ *
+ * Los frames de control y cada {@link Priority} tienen su propio carril: un comando de voz
+ * no espera detrás de una ráfaga de notificaciones. Por carril se mide cuánto esperan los
+ * mensajes hasta que el escritor los toma. El close tiene un carril aparte que solo se
+ * vacía cuando no quedan datos, porque el RFC 6455 lo quiere detrás de todo lo enviado.
+ *
+ * Lleva la cuenta de los bytes pendientes. Al superar la marca alta avisa de que la
+ * conexión ya no es escribible y, cuando el escritor la vacía por debajo de la marca baja,
+ * vuelve a avisar. Los mensajes de datos que no caben en el límite se rechazan. Los frames
+ * de control (close, pong) siempre se aceptan para no bloquear el protocolo.
+ */
+final class OutboundQueue {
+
+    static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    static final int DEFAULT_HIGH_WATERMARK = 256 * 1024;
+    static final int DEFAULT_LOW_WATERMARK = 64 * 1024;
+
+    /**
+     * Mensaje pendiente de codificar. El texto se codifica en el hilo escritor;
+     * los datos binarios ya vienen copiados.
+     */
+    static final class Frame {
+        final int opcode;
+        final String text;
+        final ByteBuffer data;
+        final int size;
+        final Priority priority;
+        long enqueuedNanos;
+
+        private Frame(int opcode, String text, ByteBuffer data, int size, Priority priority) {
+            this.opcode = opcode;
+            this.text = text;
+            this.data = data;
+            this.size = size;
+            this.priority = priority;
+        }
+
+        static Frame text(String message, Priority priority) {
+            // Estimación: 1 byte por char (nuestro JSON es casi todo ASCII)
+            return new Frame(0x1, message, null, message.length(), priority);
+        }
+
+        static Frame binary(int opcode, ByteBuffer data) {
+            return new Frame(opcode, null, data, data.remaining(), Priority.NORMAL);
+        }
+
+        boolean isControl() {
+            return opcode >= 0x8;
+        }
+    }
+
+    interface WatermarkListener {
+        void onWritabilityChanged(boolean writable);
+    }
+
+    // Carriles: control antes que nada, luego por prioridad y el close al final
+    private final ConcurrentLinkedQueue<Frame> control = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Frame> interactive = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Frame> normal = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Frame> bulk = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Frame> close = new ConcurrentLinkedQueue<>();
+    private final LatencyHistogram[] waits = newWaitHistograms();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final WatermarkListener listener;
+
+    private volatile int maxBytes = DEFAULT_MAX_BYTES;
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+
+    OutboundQueue(WatermarkListener listener) {
+        this.listener = listener;
+    }
+
+    private static LatencyHistogram[] newWaitHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[Priority.values().length];
+        for (Priority priority : Priority.values()) {
+            histograms[priority.ordinal()] = new LatencyHistogram("Wait " + priority);
+        }
+        return histograms;
+    }
+
+    void setLimits(int maxBytes, int highWatermark, int lowWatermark) {
+        if (lowWatermark > highWatermark || highWatermark > maxBytes) {
+            throw new IllegalArgumentException("Expected lowWatermark <= highWatermark <= maxBytes");
+        }
+        this.maxBytes = maxBytes;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * @return false si el mensaje no cabe en el límite de la cola
+     */
+    boolean offer(Frame frame) {
+        long total = queuedBytes.addAndGet(frame.size);
+        if (!frame.isControl() && total > maxBytes) {
+            queuedBytes.addAndGet(-frame.size);
+            return false;
+        }
+
+        queuedFrames.incrementAndGet();
+        frame.enqueuedNanos = System.nanoTime();
+        lane(frame).add(frame);
+
+        if (total > highWatermark && writable.compareAndSet(true, false)) {
+            listener.onWritabilityChanged(false);
+        }
+        return true;
+    }
+
+    private ConcurrentLinkedQueue<Frame> lane(Frame frame) {
+        // El close va detrás de todo lo pendiente para no cortar mensajes ya aceptados
+        if (frame.opcode == 0x8) return close;
+        if (frame.isControl()) return control;
+        switch (frame.priority) {
+            case INTERACTIVE:
+                return interactive;
+            case BULK:
+                return bulk;
+            default:
+                return normal;
+        }
+    }
+
+    /**
+     * Saca el siguiente frame de control (ping, pong), que puede ir entre
+     * los fragmentos de un mensaje. Sus bytes siguen contando hasta {@link #release(long)}.
+     * Solo desde el hilo escritor.
+     */
+    Frame pollControl() {
+        return taken(control.poll());
+    }
+
+    /**
+     * Saca el siguiente mensaje de datos, por orden de prioridad, y sin datos pendientes
+     * el close. Sus bytes siguen contando hasta {@link #release(long)}. Solo desde el hilo
+     * escritor.
+     */
+    Frame pollData() {
+        Frame frame = interactive.poll();
+        if (frame == null) frame = normal.poll();
+        if (frame == null) frame = bulk.poll();
+        if (frame != null) {
+            waits[frame.priority.ordinal()].record(System.nanoTime() - frame.enqueuedNanos);
+            return taken(frame);
+        }
+        return taken(close.poll());
+    }
+
+    private Frame taken(Frame frame) {
+        if (frame != null) {
+            queuedFrames.decrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Espera en cola de los mensajes de {@code priority} ya tomados por el escritor.
+     */
+    LatencyHistogram getWaitHistogram(Priority priority) {
+        return waits[priority.ordinal()];
+    }
+
+    /**
+     * Descuenta los bytes ya entregados al socket.
+     */
+    void release(long bytes) {
+        long total = queuedBytes.addAndGet(-bytes);
+        if (total <= lowWatermark && writable.compareAndSet(false, true)) {
+            listener.onWritabilityChanged(true);
+        }
+    }
+
+    boolean isEmpty() {
+        return control.isEmpty() && interactive.isEmpty() && normal.isEmpty() && bulk.isEmpty()
+                && close.isEmpty();
+    }
+
+    boolean isWritable() {
+        return writable.get();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    /**
+     * Descarta lo pendiente (p. ej. al cerrar la conexión).
+     */
+    void clear() {
+        long dropped = 0;
+        Frame frame;
+        while ((frame = pollControl()) != null || (frame = pollData()) != null) {
+            dropped += frame.size;
+        }
+        release(dropped);
+    }
+}
@@ -0,0 +1,283 @@
+package com.yarvis.assistant.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Bandeja de salida persistente: guarda los mensajes del cliente hasta que el servidor
+ * confirma su recepción con un ack, para reenviarlos tras una reconexión o después de
+ * que el proceso muera.
+ *
+ * Es un journal de solo añadir: cada append y cada ack es un registro al final del
+ * fichero (tipo, longitud, datos y CRC32) escrito con una sola llamada al FileChannel.
+ * No se hace fsync: una vez en la caché de páginas del kernel sobrevive a la muerte del
+ * proceso, que es el caso que importa. Al abrir se reconstruyen los pendientes leyendo el
+ * journal; un registro cortado o corrupto al final se descarta. Cuando los registros
+ * muertos superan a los vivos, el fichero se reescribe solo con los pendientes.
+ */
+final class Outbox {
+
+    private static final String TAG = "Outbox";
+
+    private static final byte RECORD_APPEND = 1;
+    private static final byte RECORD_ACK = 2;
+    // Tipo (1) + longitud (4) antes de los datos y CRC (4) después
+    private static final int RECORD_OVERHEAD = 9;
+    private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final int COMPACT_MIN_DEAD_RECORDS = 256;
+
+    /**
+     * Mensaje pendiente de confirmar.
+     */
+    static final class Entry {
+        final String messageId;
+        final String json;
+        final long expiresAt;
+
+        Entry(String messageId, String json, long expiresAt) {
+            this.messageId = messageId;
+            this.json = json;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+    private int deadRecords;
+
+    private Outbox(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Abre (o crea) el journal y carga los mensajes pendientes.
+     */
+    static Outbox open(File file) throws IOException {
+        return open(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    static Outbox open(File file, int maxEntries) throws IOException {
+        Outbox outbox = new Outbox(file, maxEntries);
+        outbox.load();
+        return outbox;
+    }
+
+    /**
+     * Guarda un mensaje hasta su ack o hasta que pasen {@code ttlMs}. Si se supera el
+     * máximo de pendientes se descarta el más antiguo.
+     */
+    synchronized void append(String messageId, String json, long ttlMs) throws IOException {
+        Entry entry = new Entry(messageId, json, System.currentTimeMillis() + ttlMs);
+        writeRecord(RECORD_APPEND, entry);
+        pending.put(messageId, entry);
+
+        if (pending.size() > maxEntries) {
+            Iterator<Entry> oldest = pending.values().iterator();
+            String dropped = oldest.next().messageId;
+            oldest.remove();
+            NetLog.w(TAG, "Outbox full, dropping oldest message " + dropped);
+            writeRecord(RECORD_ACK, new Entry(dropped, null, 0));
+            deadRecords += 2;
+        }
+    }
+
+    /**
+     * El servidor recibió el mensaje: se borra de los pendientes.
+     */
+    synchronized void ack(String messageId) throws IOException {
+        if (pending.remove(messageId) == null) return;
+
+        writeRecord(RECORD_ACK, new Entry(messageId, null, 0));
+        deadRecords += 2;
+        if (deadRecords >= COMPACT_MIN_DEAD_RECORDS && deadRecords > pending.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Pendientes no caducados, en el orden en que se guardaron. Los caducados se olvidan.
+     */
+    synchronized List<Entry> pending() {
+        long now = System.currentTimeMillis();
+        List<Entry> result = new ArrayList<>(pending.size());
+        Iterator<Entry> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.expiresAt <= now) {
+                // Sin registro de ack: desaparece en la siguiente compactación o al recargar
+                it.remove();
+                deadRecords++;
+            } else {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    synchronized void close() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {}
+        channel = null;
+    }
+
+    private void load() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        ByteBuffer data = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        while (data.hasRemaining() && channel.read(data, data.position()) > 0) {
+            // Lee el journal completo
+        }
+        data.flip();
+
+        long now = System.currentTimeMillis();
+        int records = 0;
+        while (data.remaining() >= RECORD_OVERHEAD) {
+            int start = data.position();
+            byte type = data.get();
+            int length = data.getInt();
+            if (length < 0 || length > MAX_RECORD_SIZE || data.remaining() < length + 4) {
+                data.position(start);
+                break;
+            }
+            int payloadStart = data.position();
+            crc.reset();
+            crc.update(data.array(), payloadStart, length);
+            int expected = data.getInt(payloadStart + length);
+            if ((int) crc.getValue() != expected) {
+                data.position(start);
+                break;
+            }
+
+            readRecord(type, data, payloadStart, length, now);
+            data.position(payloadStart + length + 4);
+            records++;
+        }
+
+        deadRecords = records - pending.size();
+        if (data.hasRemaining()) {
+            // Escritura a medias al morir el proceso: se descarta desde ahí
+            NetLog.w(TAG, "Discarding " + data.remaining() + " trailing bytes of outbox journal");
+            channel.truncate(data.position());
+        }
+        channel.position(data.position());
+        NetLog.d(TAG, "Loaded " + pending.size() + " pending messages from " + file.getName());
+
+        if (deadRecords >= COMPACT_MIN_DEAD_RECORDS && deadRecords > pending.size()) {
+            compact();
+        }
+    }
+
+    private void readRecord(byte type, ByteBuffer data, int offset, int length, long now) {
+        ByteBuffer record = ByteBuffer.wrap(data.array(), offset, length);
+        String messageId = readString(record);
+        if (type == RECORD_APPEND) {
+            long expiresAt = record.getLong();
+            String json = new String(record.array(), record.position(), record.remaining(), StandardCharsets.UTF_8);
+            if (expiresAt > now) {
+                pending.put(messageId, new Entry(messageId, json, expiresAt));
+            }
+        } else if (type == RECORD_ACK) {
+            pending.remove(messageId);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort() & 0xFFFF;
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    /**
+     * Codifica el registro en el buffer reutilizable y lo escribe al final del journal.
+     */
+    private void writeRecord(byte type, Entry entry) throws IOException {
+        if (channel == null) {
+            throw new IOException("Outbox is closed");
+        }
+        encodeRecord(type, entry);
+        while (recordBuffer.hasRemaining()) {
+            channel.write(recordBuffer);
+        }
+    }
+
+    private void encodeRecord(byte type, Entry entry) {
+        byte[] id = entry.messageId.getBytes(StandardCharsets.UTF_8);
+        byte[] json = entry.json != null ? entry.json.getBytes(StandardCharsets.UTF_8) : null;
+        int length = 2 + id.length + (type == RECORD_APPEND ? 8 + json.length : 0);
+
+        if (recordBuffer.capacity() < length + RECORD_OVERHEAD) {
+            recordBuffer = ByteBuffer.allocate(length + RECORD_OVERHEAD);
+        }
+        recordBuffer.clear();
+        recordBuffer.put(type).putInt(length);
+        int payloadStart = recordBuffer.position();
+        recordBuffer.putShort((short) id.length).put(id);
+        if (type == RECORD_APPEND) {
+            recordBuffer.putLong(entry.expiresAt).put(json);
+        }
+        crc.reset();
+        crc.update(recordBuffer.array(), payloadStart, length);
+        recordBuffer.putInt((int) crc.getValue());
+        recordBuffer.flip();
+    }
+
+    /**
+     * Reescribe el journal solo con los pendientes en un fichero temporal y lo sustituye
+     * de forma atómica con un rename.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (FileChannel out = new RandomAccessFile(tmp, "rw").getChannel()) {
+            out.truncate(0);
+            Iterator<Entry> it = pending.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.expiresAt <= now) {
+                    it.remove();
+                    continue;
+                }
+                encodeRecord(RECORD_APPEND, entry);
+                while (recordBuffer.hasRemaining()) {
+                    out.write(recordBuffer);
+                }
+            }
+            // El rename solo es seguro si el contenido ya está en disco
+            out.force(false);
+        }
+
+        channel.close();
+        if (!tmp.renameTo(file)) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.position(channel.size());
+            throw new IOException("Cannot replace outbox journal");
+        }
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+        deadRecords = 0;
+        if (recordBuffer.capacity() > 64 * 1024) {
+            recordBuffer = ByteBuffer.allocate(1024);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.yarvis.assistant.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Peticiones en curso esperando su respuesta, indexadas por el messageId del mensaje
+ * enviado (el servidor lo devuelve como {@code replyTo}).
+ *
+ * Cada petición tiene su timeout en el planificador del cliente. Al completarse de
+ * cualquier forma (respuesta, error, timeout o cancel() del llamante) sale del mapa y
+ * su timeout se cancela, así que el límite de peticiones en curso se libera solo.
+ */
+final class PendingRequests {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private final ConcurrentHashMap<String, CompletableFuture<WebSocketMessage.Response>> pending =
+            new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    PendingRequests(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be >= 1");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Registra una petición antes de enviarla.
+     *
+     * @return el future de la respuesta, o null si ya hay {@code maxInFlight} en curso
+     */
+    synchronized CompletableFuture<WebSocketMessage.Response> register(String messageId, long timeoutMs) {
+        if (pending.size() >= maxInFlight) {
+            return null;
+        }
+
+        CompletableFuture<WebSocketMessage.Response> future = new CompletableFuture<>();
+        pending.put(messageId, future);
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> future.completeExceptionally(
+                new TimeoutException("Sin respuesta en " + timeoutMs + "ms")),
+                timeoutMs, TimeUnit.MILLISECONDS);
+        future.whenComplete((response, error) -> {
+            timeout.cancel(false);
+            pending.remove(messageId, future);
+        });
+        return future;
+    }
+
+    /**
+     * @return false si no había una petición en curso con ese id (ya resuelta o ajena)
+     */
+    boolean complete(String messageId, WebSocketMessage.Response response) {
+        CompletableFuture<WebSocketMessage.Response> future = pending.get(messageId);
+        return future != null && future.complete(response);
+    }
+
+    boolean fail(String messageId, Throwable error) {
+        CompletableFuture<WebSocketMessage.Response> future = pending.get(messageId);
+        return future != null && future.completeExceptionally(error);
+    }
+
+    /**
+     * Falla todas las peticiones en curso (p. ej. al destruir el cliente).
+     */
+    void failAll(Throwable error) {
+        List<CompletableFuture<WebSocketMessage.Response>> all = new ArrayList<>(pending.values());
+        for (CompletableFuture<WebSocketMessage.Response> future : all) {
+            future.completeExceptionally(error);
+        }
+    }
+
+    int size() {
+        return pending.size();
+    }
+}
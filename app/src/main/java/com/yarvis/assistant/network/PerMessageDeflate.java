@@ -0,0 +1,220 @@
+package com.yarvis.assistant.network;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Extensión permessage-deflate (RFC 7692).
+ *
+ * Mantiene un Deflater y un Inflater reutilizables durante toda la conexión. Salvo que el
+ * servidor negocie {@code *_no_context_takeover}, el contexto (diccionario) se conserva entre
+ * mensajes, que es lo que más rinde con nuestro JSON repetitivo.
+ *
+ * Compresión y descompresión usan estado independiente y no se sincronizan. Comprime el
+ * {@link FrameEncoder} reutilizado de la conexión, solo desde el escritor que tiene el turno
+ * de drenar la cola de salida (hay uno a la vez); descomprime el {@link MessageAssembler}
+ * desde el hilo lector.
+ */
+final class PerMessageDeflate {
+
+    static final String EXTENSION_NAME = "permessage-deflate";
+
+    /** Oferta enviada en Sec-WebSocket-Extensions. */
+    static final String OFFER = EXTENSION_NAME;
+
+    /** Por debajo de este tamaño (bytes UTF-8) no compensa comprimir. */
+    static final int DEFAULT_THRESHOLD = 256;
+
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private final boolean clientNoContextTakeover;
+    private final boolean serverNoContextTakeover;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+
+    private byte[] deflateOut = new byte[INITIAL_CAPACITY];
+    private ByteBuffer inflateOut = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private final byte[] probe = new byte[1];
+
+    private PerMessageDeflate(boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+    /**
+     * Interpreta el header Sec-WebSocket-Extensions de la respuesta del servidor.
+     *
+     * @return la extensión negociada, o null si el servidor no aceptó permessage-deflate
+     * @throws WebSocketProtocolException si el servidor pide parámetros que no podemos cumplir
+     */
+    static PerMessageDeflate negotiate(String extensionsHeader) throws WebSocketProtocolException {
+        if (extensionsHeader == null) return null;
+
+        for (String extension : extensionsHeader.split(",")) {
+            String[] params = extension.split(";");
+            if (!EXTENSION_NAME.equalsIgnoreCase(params[0].trim())) continue;
+
+            boolean clientNoContext = false;
+            boolean serverNoContext = false;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                String name = param;
+                String value = null;
+                int eq = param.indexOf('=');
+                if (eq != -1) {
+                    name = param.substring(0, eq).trim();
+                    value = param.substring(eq + 1).trim().replace("\"", "");
+                }
+
+                switch (name.toLowerCase()) {
+                    case "client_no_context_takeover":
+                        clientNoContext = true;
+                        break;
+                    case "server_no_context_takeover":
+                        serverNoContext = true;
+                        break;
+                    case "server_max_window_bits":
+                        // El Inflater acepta cualquier ventana de hasta 15 bits
+                        break;
+                    case "client_max_window_bits":
+                        // java.util.zip siempre comprime con ventana de 15 bits
+                        if (value != null && !"15".equals(value)) {
+                            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                                    "Unsupported client_max_window_bits=" + value);
+                        }
+                        break;
+                    default:
+                        throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                                "Unknown permessage-deflate parameter: " + name);
+                }
+            }
+            return new PerMessageDeflate(clientNoContext, serverNoContext);
+        }
+        return null;
+    }
+
+    /**
+     * Comprime un mensaje completo. El resultado es válido hasta la siguiente llamada.
+     */
+    ByteBuffer compress(byte[] data, int offset, int length) {
+        deflater.setInput(data, offset, length);
+
+        int size = 0;
+        while (true) {
+            size += deflater.deflate(deflateOut, size, deflateOut.length - size, Deflater.SYNC_FLUSH);
+            if (size < deflateOut.length) break;
+            byte[] grown = new byte[deflateOut.length * 2];
+            System.arraycopy(deflateOut, 0, grown, 0, size);
+            deflateOut = grown;
+        }
+
+        // El flush termina en 00 00 FF FF, que la RFC 7692 manda quitar
+        if (size >= 4 && endsWithTail(deflateOut, size)) {
+            size -= 4;
+        }
+
+        if (clientNoContextTakeover) {
+            deflater.reset();
+        }
+        return ByteBuffer.wrap(deflateOut, 0, size);
+    }
+
+    /**
+     * Descomprime un mensaje completo. El resultado se escribe en un buffer reutilizable
+     * y solo es válido hasta la siguiente llamada.
+     */
+    ByteBuffer decompress(byte[] data, int offset, int length, int maxSize)
+            throws WebSocketProtocolException {
+        inflateOut.clear();
+        try {
+            inflater.setInput(data, offset, length);
+            inflateAll(maxSize);
+            inflater.setInput(TAIL);
+            inflateAll(maxSize);
+        } catch (DataFormatException e) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "Invalid compressed data: " + e.getMessage());
+        } finally {
+            if (serverNoContextTakeover) {
+                inflater.reset();
+            }
+        }
+
+        inflateOut.flip();
+        return inflateOut;
+    }
+
+    /**
+     * Libera el buffer de compresión si creció por un mensaje grande.
+     */
+    void trimDeflate() {
+        if (deflateOut.length > MAX_POOLED_CAPACITY) {
+            deflateOut = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Libera el buffer de descompresión si creció por un mensaje grande.
+     */
+    void trimInflate() {
+        if (inflateOut.capacity() > MAX_POOLED_CAPACITY) {
+            inflateOut = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    private void inflateAll(int maxSize) throws DataFormatException, WebSocketProtocolException {
+        while (true) {
+            if (!inflateOut.hasRemaining()) {
+                if (inflateOut.capacity() >= maxSize) {
+                    // Lleno justo en el límite: solo se pasa si aún queda salida por sacar
+                    if (!hasPendingOutput()) {
+                        return;
+                    }
+                    inflater.reset();
+                    throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                            "Decompressed message exceeds " + maxSize + " bytes");
+                }
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(inflateOut.capacity() * 2, maxSize));
+                inflateOut.flip();
+                grown.put(inflateOut);
+                inflateOut = grown;
+            }
+
+            int n = inflater.inflate(inflateOut.array(), inflateOut.position(), inflateOut.remaining());
+            inflateOut.position(inflateOut.position() + n);
+            // Sin progreso y con espacio libre: se consumió toda la entrada
+            if (n == 0 && inflateOut.hasRemaining()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Consume la entrada que quede sin producir salida. true si aparece algún byte más;
+     * el inflater puede tener salida retenida aunque ya no le quede entrada.
+     */
+    private boolean hasPendingOutput() throws DataFormatException {
+        while (!inflater.finished()) {
+            int remaining = inflater.getRemaining();
+            if (inflater.inflate(probe, 0, 1) > 0) {
+                return true;
+            }
+            if (inflater.needsInput() || inflater.getRemaining() == remaining) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean endsWithTail(byte[] buf, int size) {
+        for (int i = 0; i < 4; i++) {
+            if (buf[size - 4 + i] != TAIL[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package com.yarvis.assistant.network;
+
+import java.util.Random;
+
+/**
+ * Retardos de reconexión con backoff exponencial acotado y "decorrelated jitter":
+ * cada espera es aleatoria entre la base y el triple de la anterior, sin pasar del máximo.
+ * El azar evita que muchos clientes caídos a la vez reconecten en oleadas sincronizadas.
+ */
+final class ReconnectBackoff {
+
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random;
+    private long previousMs;
+    private int attempts;
+
+    ReconnectBackoff(long baseMs, long maxMs, Random random) {
+        if (baseMs <= 0 || maxMs < baseMs) {
+            throw new IllegalArgumentException("Expected 0 < baseMs <= maxMs");
+        }
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.random = random;
+        this.previousMs = baseMs;
+    }
+
+    /**
+     * Retardo antes del siguiente intento.
+     */
+    synchronized long nextDelayMs() {
+        long upper = Math.min(maxMs, previousMs * 3);
+        long delay = baseMs + (long) (random.nextDouble() * (upper - baseMs));
+        previousMs = delay;
+        attempts++;
+        return delay;
+    }
+
+    /**
+     * Vuelve al retardo base (tras una conexión correcta).
+     */
+    synchronized void reset() {
+        previousMs = baseMs;
+        attempts = 0;
+    }
+
+    /**
+     * Intentos desde el último reset().
+     */
+    synchronized int getAttempts() {
+        return attempts;
+    }
+}
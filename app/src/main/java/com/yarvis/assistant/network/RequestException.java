@@ -0,0 +1,13 @@
+package com.yarvis.assistant.network;
+
+/**
+ * Fallo de una petición enviada con {@code sendVoiceCommandAsync}/{@code sendChatMessageAsync}:
+ * el servidor respondió con un error, no se pudo enviar o se superó el límite de
+ * peticiones en curso. Los timeouts llegan como {@link java.util.concurrent.TimeoutException}.
+ */
+public class RequestException extends Exception {
+
+    public RequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.yarvis.assistant.network;
+
+/**
+ * Histograma de los round-trip times medidos con ping/pong de protocolo.
+ */
+public final class RttHistogram extends LatencyHistogram {
+
+    RttHistogram() {
+        super("RTT");
+    }
+}
@@ -3,6 +3,9 @@ package com.yarvis.assistant.network;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Configuración del servidor backend.
  */
@@ -14,6 +17,7 @@ public class ServerConfig {
     private static final String KEY_AGENT_NAME = "agent_name";
     private static final String KEY_PASSWORD = "backend_password";
     private static final String KEY_PRODUCTION_MODE = "production_mode";
+    private static final String KEY_NIO_TRANSPORT = "nio_transport";
 
     // Valores por defecto
     private static final String DEFAULT_SERVER_URL = "ws://192.168.18.21:3000/ws";
@@ -21,6 +25,7 @@ public class ServerConfig {
     private static final String DEFAULT_AGENT_NAME = "Yarvis";
     private static final String DEFAULT_PASSWORD = "PasswordJarvis2026!";
     private static final boolean DEFAULT_PRODUCTION_MODE = false; // Por defecto usa desarrollo
+    private static final boolean DEFAULT_NIO_TRANSPORT = false; // Por defecto socket bloqueante
 
     private final SharedPreferences prefs;
 
@@ -29,19 +34,43 @@ public class ServerConfig {
     }
 
     /**
-     * Obtiene la URL del servidor WebSocket.
+     * Obtiene la URL del servidor WebSocket tal como se configuró: puede ser una lista
+     * separada por comas (ver {@link #getServerUrls()}).
      */
     public String getServerUrl() {
         return prefs.getString(KEY_SERVER_URL, DEFAULT_SERVER_URL);
     }
 
     /**
-     * Establece la URL del servidor WebSocket.
+     * Establece la URL del servidor WebSocket, o varias separadas por comas.
      */
     public void setServerUrl(String url) {
         prefs.edit().putString(KEY_SERVER_URL, url).apply();
     }
 
+    /**
+     * Obtiene los endpoints del backend en orden de preferencia (p. ej. la IP de la LAN y
+     * el ingress público). El cliente usa el de menor RTT y conmuta si falla.
+     */
+    public List<String> getServerUrls() {
+        List<String> urls = new ArrayList<>();
+        String value = getServerUrl();
+        if (value == null) return urls;
+        for (String url : value.split("[,\\s]+")) {
+            if (!url.isEmpty() && !urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Establece los endpoints del backend en orden de preferencia.
+     */
+    public void setServerUrls(List<String> urls) {
+        setServerUrl(String.join(", ", urls));
+    }
+
     /**
      * Verifica si el backend está habilitado.
      */
@@ -88,9 +117,8 @@ public class ServerConfig {
      * Verifica si la configuración está completa (URL y contraseña establecidas).
      */
     public boolean isConfigured() {
-        String url = getServerUrl();
         String password = getPassword();
-        return url != null && !url.isEmpty() && password != null && !password.isEmpty();
+        return !getServerUrls().isEmpty() && password != null && !password.isEmpty();
     }
 
     /**
@@ -106,4 +134,18 @@ public class ServerConfig {
     public void setProductionMode(boolean production) {
         prefs.edit().putBoolean(KEY_PRODUCTION_MODE, production).apply();
     }
+
+    /**
+     * Verifica si se usa el transporte NIO compartido (solo aplica a ws://).
+     */
+    public boolean isNioTransportEnabled() {
+        return prefs.getBoolean(KEY_NIO_TRANSPORT, DEFAULT_NIO_TRANSPORT);
+    }
+
+    /**
+     * Habilita o deshabilita el transporte NIO compartido.
+     */
+    public void setNioTransportEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_NIO_TRANSPORT, enabled).apply();
+    }
 }
@@ -0,0 +1,47 @@
+package com.yarvis.assistant.network;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Manejadores de los mensajes del servidor, indexados por su campo {@code type}.
+ *
+ * El JSON se parsea una sola vez antes de despachar; cada tipo registra cómo convertir
+ * ese objeto en su clase de mensaje y qué hacer con ella. Un tipo nuevo solo necesita
+ * su clase y una llamada a {@link #register}.
+ */
+final class ServerMessageRegistry {
+
+    private final ConcurrentHashMap<String, Consumer<JSONObject>> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Registra (o sustituye) el manejador de {@code type}.
+     */
+    <T> void register(String type, Function<JSONObject, T> parser, Consumer<? super T> handler) {
+        handlers.put(type, json -> handler.accept(parser.apply(json)));
+    }
+
+    /**
+     * Registra un manejador que trabaja directamente sobre el JSON.
+     */
+    void register(String type, Consumer<JSONObject> handler) {
+        handlers.put(type, handler);
+    }
+
+    void unregister(String type) {
+        handlers.remove(type);
+    }
+
+    /**
+     * @return false si no hay manejador para el tipo del mensaje
+     */
+    boolean dispatch(JSONObject json) {
+        Consumer<JSONObject> handler = handlers.get(json.optString("type", ""));
+        if (handler == null) return false;
+        handler.accept(json);
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package com.yarvis.assistant.network;
+
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Establece TLS sobre un socket TCP ya conectado, compartiendo un único SSLContext
+ * en todo el proceso.
+ *
+ * La caché de sesiones de cliente del contexto está indexada por host y puerto (los que
+ * se pasan a createSocket), así que las reconexiones al mismo servidor reanudan la sesión
+ * en lugar de repetir el handshake completo. También fija SNI explícitamente y, si se pide,
+ * ofrece ALPN.
+ */
+final class TlsConnector {
+
+    private static final String TAG = "TlsConnector";
+    private static final int SESSION_CACHE_SIZE = 16;
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private static SSLContext context;
+
+    private TlsConnector() {
+    }
+
+    private static synchronized SSLContext context() throws IOException {
+        if (context == null) {
+            try {
+                SSLContext ctx = SSLContext.getInstance("TLS");
+                ctx.init(null, null, null);
+                ctx.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+                ctx.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+                context = ctx;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot create SSLContext: " + e.getMessage(), e);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Hace el handshake TLS sobre {@code plain} y anota su duración en {@code timings}.
+     *
+     * @param alpnProtocols protocolos ALPN a ofrecer, o null para no usar ALPN
+     */
+    static SSLSocket handshake(Socket plain, String host, int port, String[] alpnProtocols,
+                               ConnectTimings timings) throws IOException {
+        SSLSocketFactory factory = context().getSocketFactory();
+        SSLSocket socket = (SSLSocket) factory.createSocket(plain, host, port, true);
+
+        SSLParameters params = socket.getSSLParameters();
+        if (!isIpLiteral(host)) {
+            params.setServerNames(Collections.singletonList(new SNIHostName(host)));
+        }
+        if (alpnProtocols != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            params.setApplicationProtocols(alpnProtocols);
+        }
+        socket.setSSLParameters(params);
+
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        socket.startHandshake();
+        timings.tlsHandshakeMs = (System.nanoTime() - start) / 1_000_000;
+
+        SSLSession session = socket.getSession();
+        // Una sesión creada antes de este handshake viene de la caché
+        timings.tlsResumed = session.getCreationTime() < startMillis;
+        if (alpnProtocols != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            String protocol = socket.getApplicationProtocol();
+            timings.alpnProtocol = protocol == null || protocol.isEmpty() ? null : protocol;
+        }
+
+        NetLog.d(TAG, "TLS " + session.getProtocol() + " with " + host + ":" + port
+                + (timings.tlsResumed ? " (resumed)" : "") + " in " + timings.tlsHandshakeMs + "ms");
+        return socket;
+    }
+
+    private static boolean isIpLiteral(String host) {
+        // SNI no admite direcciones IP
+        if (host.indexOf(':') != -1) return true;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') return false;
+        }
+        return true;
+    }
+}
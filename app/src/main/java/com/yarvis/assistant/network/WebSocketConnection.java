@@ -1,117 +1,403 @@
 package com.yarvis.assistant.network;
 
-import android.util.Log;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Base64;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-
-import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementación ligera de WebSocket sin dependencias externas.
  * Soporta ws:// y wss:// (SSL).
+ *
+ * Opcionalmente (solo ws://) puede usar un transporte NIO no bloqueante: el canal se
+ * registra en el {@link NioEventLoop} compartido, que hace conexión, handshake,
+ * lecturas y escrituras sin dedicar hilos a cada conexión.
  */
-public class WebSocketConnection {
+public class WebSocketConnection implements WebSocketTransport {
 
     private static final String TAG = "WebSocketConnection";
     private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // Tope de bytes que el escritor agrupa en una sola escritura
+    private static final int MAX_BATCH_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_MISSED_PONGS = 2;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_FRAGMENT_SIZE = 16 * 1024;
 
     private final URI uri;
     private final Callback callback;
     private final ExecutorService executor;
     private final AtomicBoolean connected = new AtomicBoolean(false);
     private final AtomicBoolean closing = new AtomicBoolean(false);
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final MessageAssembler assembler;
+    private final FrameDecoder decoder;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final HandshakeParser handshakeParser = new HandshakeParser();
+    private final ConnectTimings timings = new ConnectTimings();
+    private String[] alpnProtocols;
+    private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+
+    // Cola de salida con un único escritor activo a la vez
+    private final OutboundQueue outbound;
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    // Mensajes más grandes se envían fragmentados (0 = nunca)
+    private volatile int fragmentSize = DEFAULT_FRAGMENT_SIZE;
+    // Mensaje que el escritor está enviando por fragmentos (o null) y su tamaño de fragmento
+    private OutboundQueue.Frame fragmenting;
+    private int fragmentLength;
+
+    // Ping/pong de protocolo: pings sin respuesta y RTT medido
+    private final AtomicInteger unansweredPings = new AtomicInteger();
+    private final RttHistogram rttHistogram = new RttHistogram();
+    private volatile int maxMissedPongs = DEFAULT_MAX_MISSED_PONGS;
+
+    // Control de flujo de entrada: con la lectura pausada el lector bloqueante espera
+    // en el monitor y el canal NIO deja de pedir OP_READ
+    private final Object readPauseLock = new Object();
+    private volatile boolean readPaused;
 
+    // permessage-deflate: oferta en el handshake y resultado de la negociación
+    private boolean compressionEnabled;
+    private int compressionThreshold = PerMessageDeflate.DEFAULT_THRESHOLD;
+    private volatile PerMessageDeflate deflate;
+
+    // Transporte bloqueante
     private Socket socket;
     private OutputStream outputStream;
     private InputStream inputStream;
 
-    public interface Callback {
-        void onOpen();
-        void onMessage(String message);
-        void onClose(int code, String reason);
-        void onError(Exception ex);
-    }
+    // Transporte NIO (todo se accede desde el hilo del event loop)
+    private final NioEventLoop loop;
+    private SocketChannel channel;
+    private SelectionKey selectionKey;
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private String handshakeKey;
+    private boolean handshakeDone;
+    private boolean closeAfterFlush;
+    private boolean writerWaiting;
+    private long phaseStartNanos;
+    private List<InetAddress> nioAddresses;
+    private int nioAttempt;
+    private boolean tcpConnected;
+    private volatile NioEventLoop.Timer connectDeadline;
 
     public WebSocketConnection(URI uri, Callback callback) {
+        this(uri, callback, false);
+    }
+
+    /**
+     * @param useNio usar el event loop NIO compartido en lugar de un socket bloqueante.
+     *               Se ignora para wss://, que siempre usa el transporte bloqueante.
+     */
+    public WebSocketConnection(URI uri, Callback callback, boolean useNio) {
         this.uri = uri;
         this.callback = callback;
-        this.executor = Executors.newCachedThreadPool();
+        this.assembler = new MessageAssembler(callback);
+        this.decoder = new FrameDecoder(this::handleFrame);
+        this.outbound = new OutboundQueue(callback::onWritabilityChanged);
+
+        NioEventLoop nioLoop = null;
+        if (useNio && !"wss".equalsIgnoreCase(uri.getScheme())) {
+            try {
+                nioLoop = NioEventLoop.shared();
+            } catch (IOException e) {
+                NetLog.w(TAG, "NIO unavailable, using blocking socket: " + e.getMessage());
+            }
+        }
+        this.loop = nioLoop;
+        this.executor = nioLoop == null ? Executors.newCachedThreadPool() : null;
     }
 
+    @Override
     public void connect() {
-        executor.execute(this::doConnect);
+        if (loop != null) {
+            connectNio();
+        } else {
+            executor.execute(this::doConnect);
+        }
+    }
+
+    /**
+     * Encola un mensaje de texto. Los mensajes se escriben en orden por un único escritor.
+     *
+     * @return false si no hay conexión, se está cerrando o la cola de salida está llena
+     */
+    @Override
+    public boolean send(String message) {
+        return send(message, Priority.NORMAL);
     }
 
-    public void send(String message) {
-        if (!connected.get()) return;
+    /**
+     * Encola un mensaje de texto. Se escribe antes que los de menor prioridad que aún no
+     * hayan empezado a enviarse; un mensaje fragmentado a medias termina primero.
+     *
+     * @return false si no hay conexión, se está cerrando o la cola de salida está llena
+     */
+    @Override
+    public boolean send(String message, Priority priority) {
+        // Tras close() nada puede adelantar al close ya encolado
+        if (!connected.get() || closing.get()) return false;
+        return enqueue(OutboundQueue.Frame.text(message, priority));
+    }
 
-        executor.execute(() -> {
-            try {
-                sendFrame(message);
-            } catch (IOException e) {
-                Log.e(TAG, "Send error: " + e.getMessage());
-            }
-        });
+    /**
+     * Envía un mensaje binario con los bytes restantes de {@code data}.
+     * Los bytes se copian antes de volver, así que el llamador puede reutilizar el buffer.
+     *
+     * @return false si no hay conexión, se está cerrando o la cola de salida está llena
+     */
+    @Override
+    public boolean sendBinary(ByteBuffer data) {
+        if (!connected.get() || closing.get()) return false;
+
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        return enqueue(OutboundQueue.Frame.binary(0x2, copy));
     }
 
+    @Override
     public void close() {
         if (closing.getAndSet(true)) return;
 
-        executor.execute(() -> {
-            try {
-                if (connected.get()) {
-                    sendCloseFrame();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Close error: " + e.getMessage());
-            } finally {
-                cleanup();
+        if (loop != null) {
+            loop.execute(this::closeNio);
+            return;
+        }
+
+        if (connected.get()) {
+            // El escritor envía el close detrás de lo pendiente y luego libera el socket
+            sendCloseFrame();
+        } else {
+            executor.execute(this::cleanup);
+        }
+    }
+
+    @Override
+    public void pauseReading() {
+        readPaused = true;
+        if (loop != null) {
+            // Desde el propio lector se aplica ya, antes de la siguiente selección
+            if (loop.inEventLoop()) {
+                updateInterestOps();
+            } else {
+                loop.execute(this::updateInterestOps);
             }
-        });
+        }
     }
 
+    @Override
+    public void resumeReading() {
+        synchronized (readPauseLock) {
+            readPaused = false;
+            readPauseLock.notifyAll();
+        }
+        if (loop != null) {
+            loop.execute(this::updateInterestOps);
+        }
+    }
+
+    @Override
     public boolean isConnected() {
         return connected.get();
     }
 
+    /**
+     * Envía un ping de protocolo (opcode 0x9) con la marca de tiempo actual, para medir
+     * el RTT con el pong. Si ya hay {@link #setMaxMissedPongs(int)} pings sin respuesta,
+     * la conexión se da por muerta y se cierra con el código 1006.
+     *
+     * @return false si no se envió, p. ej. con la lectura pausada
+     */
+    @Override
+    public boolean sendPing() {
+        if (!connected.get() || closing.get()) return false;
+        // Con la lectura pausada los pongs se quedan sin leer en el socket
+        if (readPaused) return false;
+
+        int missed = unansweredPings.get();
+        if (missed >= maxMissedPongs) {
+            onPingTimeout(missed);
+            return false;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(Long.BYTES).putLong(0, System.nanoTime());
+        if (!enqueue(OutboundQueue.Frame.binary(0x9, payload))) return false;
+        unansweredPings.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Pings consecutivos sin pong tras los que la conexión se considera muerta.
+     */
+    public void setMaxMissedPongs(int maxMissedPongs) {
+        this.maxMissedPongs = maxMissedPongs;
+    }
+
+    /**
+     * RTT medidos con ping/pong de protocolo en esta conexión.
+     */
+    @Override
+    public RttHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    @Override
+    public LatencyHistogram getQueueWaitHistogram(Priority priority) {
+        return outbound.getWaitHistogram(priority);
+    }
+
+    /**
+     * Tamaño máximo de un frame o de un mensaje reensamblado/descomprimido, o entregado por
+     * trozos. Si se supera, la conexión se cierra con el código 1009. Por defecto {@value MessageAssembler#DEFAULT_MAX_MESSAGE_SIZE} bytes.
+     */
+    public void setMaxMessageSize(int bytes) {
+        assembler.setMaxMessageSize(bytes);
+        decoder.setMaxFrameSize(bytes);
+    }
+
+    /**
+     * Límites de la cola de salida en bytes. Por encima de {@code highWatermark} el callback
+     * recibe {@code onWritabilityChanged(false)} y al bajar de {@code lowWatermark},
+     * {@code onWritabilityChanged(true)}. Los mensajes que no caben en {@code maxBytes}
+     * se rechazan.
+     */
+    public void setSendQueueLimits(int maxBytes, int highWatermark, int lowWatermark) {
+        outbound.setLimits(maxBytes, highWatermark, lowWatermark);
+    }
+
+    /**
+     * Bytes encolados que aún no se han entregado al socket.
+     */
+    @Override
+    public long getQueuedBytes() {
+        return outbound.getQueuedBytes();
+    }
+
+    /**
+     * Mensajes encolados pendientes de codificar.
+     */
+    public int getQueuedMessages() {
+        return outbound.getQueuedFrames();
+    }
+
+    /**
+     * false mientras la cola de salida esté por encima de la marca alta.
+     */
+    @Override
+    public boolean isWritable() {
+        return outbound.isWritable();
+    }
+
+    /**
+     * Tamaño de fragmento para mensajes salientes. Los mensajes más grandes se envían en
+     * varios frames y los pings y pongs pueden colarse entre ellos, así que un mensaje
+     * grande no retrasa el keepalive. 0 desactiva la fragmentación.
+     * Por defecto {@value #DEFAULT_FRAGMENT_SIZE} bytes.
+     */
+    public void setFragmentSize(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Fragment size must be >= 0");
+        }
+        this.fragmentSize = bytes;
+    }
+
+    /**
+     * Ofrece permessage-deflate en el handshake. Si el servidor lo acepta, los mensajes
+     * de al menos {@code thresholdBytes} se envían comprimidos. Debe llamarse antes de connect().
+     */
+    public void setCompression(boolean enabled, int thresholdBytes) {
+        this.compressionEnabled = enabled;
+        this.compressionThreshold = thresholdBytes;
+    }
+
+    /**
+     * Plazo total para establecer la conexión (DNS, TCP, TLS y upgrade). Si se agota,
+     * connect() termina con onError en lugar de esperar al timeout del sistema.
+     * Debe llamarse antes de connect().
+     */
+    public void setConnectTimeout(int timeoutMs) {
+        this.connectTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Protocolos ALPN a ofrecer en conexiones wss:// (p. ej. "http/1.1"), o null para no
+     * usar ALPN. Solo tiene efecto en Android 10+. Debe llamarse antes de connect().
+     */
+    public void setAlpnProtocols(String... protocols) {
+        this.alpnProtocols = protocols;
+    }
+
+    /**
+     * Duración de las fases de la conexión (TCP, TLS, upgrade).
+     */
+    @Override
+    public ConnectTimings getConnectTimings() {
+        return timings;
+    }
+
+    /**
+     * Verifica si el servidor aceptó permessage-deflate.
+     */
+    public boolean isCompressionActive() {
+        return deflate != null;
+    }
+
     private void doConnect() {
+        readBuffer.clear();
+        handshakeParser.reset();
         try {
             boolean ssl = "wss".equalsIgnoreCase(uri.getScheme());
             String host = uri.getHost();
-            int port = uri.getPort();
-            if (port == -1) {
-                port = ssl ? 443 : 80;
-            }
+            int port = resolvePort();
+
+            // Conexión TCP contra todas las direcciones y, para wss://, TLS por separado
+            // para medir cada fase
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs);
+            Socket plain = DualStackConnector.connect(host, port, connectTimeoutMs, executor, timings);
+            socket = plain;
+            timings.tcpConnectMs = elapsedMs(start);
 
-            // Crear socket
+            // TLS y upgrade también cuentan para el plazo de conexión
+            plain.setSoTimeout(remainingMs(deadline));
             if (ssl) {
-                socket = SSLSocketFactory.getDefault().createSocket(host, port);
-            } else {
-                socket = new Socket(host, port);
+                socket = TlsConnector.handshake(plain, host, port, alpnProtocols, timings);
             }
 
             socket.setTcpNoDelay(true);
-            socket.setSoTimeout(0); // Sin timeout para lectura
 
             outputStream = socket.getOutputStream();
             inputStream = socket.getInputStream();
 
             // Handshake WebSocket
+            start = System.nanoTime();
             if (!performHandshake(host, port)) {
                 throw new IOException("WebSocket handshake failed");
             }
+            timings.upgradeMs = elapsedMs(start);
+            socket.setSoTimeout(0); // Sin timeout para lectura
+            NetLog.d(TAG, "Connected to " + host + ":" + port + " " + timings);
 
             connected.set(true);
             callback.onOpen();
@@ -120,59 +406,120 @@ public class WebSocketConnection {
             readFrames();
 
         } catch (Exception e) {
-            Log.e(TAG, "Connection error: " + e.getMessage());
+            NetLog.e(TAG, "Connection error: " + e.getMessage());
             callback.onError(e);
             cleanup();
         }
     }
 
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static int remainingMs(long deadlineNanos) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Connect timed out");
+        }
+        return (int) remaining;
+    }
+
+    private int resolvePort() {
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "wss".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return port;
+    }
+
     private boolean performHandshake(String host, int port) throws IOException {
-        // Generar clave WebSocket
+        String key = generateHandshakeKey();
+        outputStream.write(buildHandshakeRequest(host, port, key).getBytes(StandardCharsets.ISO_8859_1));
+        outputStream.flush();
+
+        // Leer respuesta sobre el buffer de frames: lo que venga tras los headers es para el decoder
+        while (true) {
+            int read = inputStream.read(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+            if (read == -1) {
+                throw new IOException("Connection closed during handshake");
+            }
+
+            readBuffer.position(readBuffer.position() + read);
+            readBuffer.flip();
+            try {
+                if (handshakeParser.parse(readBuffer)) break;
+            } finally {
+                readBuffer.compact();
+            }
+        }
+
+        return checkHandshakeResponse(handshakeParser.getStatusLine(), handshakeParser.getHeaders(), key);
+    }
+
+    private String generateHandshakeKey() {
         byte[] keyBytes = new byte[16];
         new SecureRandom().nextBytes(keyBytes);
-        String key = Base64.getEncoder().encodeToString(keyBytes);
+        return Base64.getEncoder().encodeToString(keyBytes);
+    }
 
+    private String buildHandshakeRequest(String host, int port, String key) {
         // Construir path
         String path = uri.getPath();
         if (path == null || path.isEmpty()) path = "/";
         if (uri.getQuery() != null) path += "?" + uri.getQuery();
 
-        // Enviar request HTTP
-        String request = "GET " + path + " HTTP/1.1\r\n" +
+        return "GET " + path + " HTTP/1.1\r\n" +
                 "Host: " + host + (port != 80 && port != 443 ? ":" + port : "") + "\r\n" +
                 "Upgrade: websocket\r\n" +
                 "Connection: Upgrade\r\n" +
                 "Sec-WebSocket-Key: " + key + "\r\n" +
                 "Sec-WebSocket-Version: 13\r\n" +
+                (compressionEnabled ? "Sec-WebSocket-Extensions: " + PerMessageDeflate.OFFER + "\r\n" : "") +
                 "\r\n";
+    }
 
-        outputStream.write(request.getBytes());
-        outputStream.flush();
-
-        // Leer respuesta
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line = reader.readLine();
-
-        if (line == null || !line.contains("101")) {
-            Log.e(TAG, "Handshake failed: " + line);
+    /**
+     * Valida la línea de estado y los headers (separados por CRLF) de la respuesta HTTP 101.
+     */
+    private boolean checkHandshakeResponse(String statusLine, String headers, String key)
+            throws WebSocketProtocolException {
+        if (statusLine == null || !statusLine.contains("101")) {
+            NetLog.e(TAG, "Handshake failed: " + statusLine);
             return false;
         }
 
-        // Leer headers hasta línea vacía
         String acceptKey = null;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
-            if (line.toLowerCase().startsWith("sec-websocket-accept:")) {
+        String extensions = null;
+        for (String line : headers.split("\r\n")) {
+            String lower = line.toLowerCase();
+            if (lower.startsWith("sec-websocket-accept:")) {
                 acceptKey = line.substring(21).trim();
+            } else if (lower.startsWith("sec-websocket-extensions:")) {
+                String value = line.substring(25).trim();
+                extensions = extensions == null ? value : extensions + ", " + value;
             }
         }
 
         // Verificar accept key
         String expectedKey = computeAcceptKey(key);
         if (!expectedKey.equals(acceptKey)) {
-            Log.e(TAG, "Invalid accept key");
+            NetLog.e(TAG, "Invalid accept key");
             return false;
         }
 
+        if (extensions != null && !compressionEnabled) {
+            NetLog.e(TAG, "Unexpected extensions: " + extensions);
+            return false;
+        }
+
+        PerMessageDeflate negotiated = PerMessageDeflate.negotiate(extensions);
+        if (negotiated != null) {
+            NetLog.d(TAG, "permessage-deflate negotiated: " + extensions);
+            encoder.setCompression(negotiated, compressionThreshold);
+            assembler.setDeflate(negotiated);
+        }
+        deflate = negotiated;
+
         return true;
     }
 
@@ -189,136 +536,563 @@ public class WebSocketConnection {
     private void readFrames() {
         try {
             while (connected.get() && !closing.get()) {
-                int firstByte = inputStream.read();
-                if (firstByte == -1) break;
-
-                int secondByte = inputStream.read();
-                if (secondByte == -1) break;
-
-                boolean fin = (firstByte & 0x80) != 0;
-                int opcode = firstByte & 0x0F;
-                boolean masked = (secondByte & 0x80) != 0;
-                int payloadLength = secondByte & 0x7F;
-
-                // Extended payload length
-                if (payloadLength == 126) {
-                    payloadLength = (inputStream.read() << 8) | inputStream.read();
-                } else if (payloadLength == 127) {
-                    // 64-bit length (skip high 4 bytes, read low 4)
-                    inputStream.read(); inputStream.read();
-                    inputStream.read(); inputStream.read();
-                    payloadLength = (inputStream.read() << 24) | (inputStream.read() << 16) |
-                            (inputStream.read() << 8) | inputStream.read();
+                // Primero lo que ya hay en el buffer (p. ej. frames pegados a la respuesta 101)
+                readBuffer.flip();
+                try {
+                    feedDecoder();
+                } finally {
+                    readBuffer.compact();
                 }
+                if (!connected.get() || closing.get()) break;
+                if (readPaused && !awaitReadResumed()) break;
 
-                // Masking key (si el servidor envía masked, lo cual es raro)
-                byte[] maskKey = null;
-                if (masked) {
-                    maskKey = new byte[4];
-                    inputStream.read(maskKey);
+                // Una lectura llena el buffer con todos los bytes disponibles
+                int read = inputStream.read(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+                if (read == -1) {
+                    // FIN sin frame de close: como en el transporte NIO, se avisa de la pérdida
+                    if (!closing.get()) {
+                        callback.onClose(1006, "Connection lost");
+                    }
+                    break;
                 }
+                readBuffer.position(readBuffer.position() + read);
+            }
+        } catch (Exception e) {
+            if (!closing.get()) {
+                NetLog.e(TAG, "Read error: " + e.getMessage());
+                callback.onError(e);
+            }
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Bloquea el hilo lector mientras la lectura esté pausada.
+     *
+     * @return false si la conexión se cerró durante la pausa
+     */
+    private boolean awaitReadResumed() throws InterruptedException {
+        synchronized (readPauseLock) {
+            while (readPaused && connected.get() && !closing.get()) {
+                readPauseLock.wait();
+            }
+        }
+        return connected.get() && !closing.get();
+    }
+
+    /**
+     * Pasa al decodificador los bytes del buffer de lectura, común a ambos transportes.
+     */
+    private void feedDecoder() throws IOException {
+        try {
+            decoder.feed(readBuffer);
+        } catch (WebSocketProtocolException e) {
+            NetLog.w(TAG, "Protocol error: " + e.getMessage());
+            failConnection(e.getCloseCode(), e.getMessage());
+        }
+    }
 
-                // Leer payload
-                byte[] payload = new byte[payloadLength];
-                int bytesRead = 0;
-                while (bytesRead < payloadLength) {
-                    int read = inputStream.read(payload, bytesRead, payloadLength - bytesRead);
-                    if (read == -1) break;
-                    bytesRead += read;
+    /**
+     * Procesa un frame recibido, común a ambos transportes.
+     *
+     * @return false si la conexión se cerró y no deben leerse más frames
+     */
+    private boolean handleFrame(boolean fin, boolean rsv1, int opcode, ByteBuffer payload) throws IOException {
+        try {
+            return dispatchFrame(fin, rsv1, opcode, payload);
+        } catch (WebSocketProtocolException e) {
+            NetLog.w(TAG, "Protocol error: " + e.getMessage());
+            failConnection(e.getCloseCode(), e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean dispatchFrame(boolean fin, boolean rsv1, int opcode, ByteBuffer payload) throws IOException {
+        // RSV1 solo es válido en el primer frame de un mensaje comprimido
+        if (rsv1 && opcode != 0x1 && opcode != 0x2) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR,
+                    "RSV1 set on opcode " + opcode);
+        }
+
+        // Procesar según opcode
+        switch (opcode) {
+            case 0x0: // Continuation frame
+                assembler.append(payload, fin);
+                break;
+
+            case 0x1: // Text frame
+            case 0x2: // Binary frame
+                if (fin) {
+                    assembler.deliverFrame(opcode, rsv1, payload);
+                } else {
+                    assembler.start(opcode, rsv1, payload);
                 }
+                break;
 
-                // Unmask si es necesario
-                if (masked && maskKey != null) {
-                    for (int i = 0; i < payload.length; i++) {
-                        payload[i] ^= maskKey[i % 4];
-                    }
+            case 0x8: // Close frame
+                int length = payload.remaining();
+                int offset = payload.arrayOffset() + payload.position();
+                int code = length >= 2 ? payload.getShort(payload.position()) & 0xFFFF : 1000;
+                String reason = length > 2 ?
+                        new String(payload.array(), offset + 2, length - 2, StandardCharsets.UTF_8) : "";
+                callback.onClose(code, reason);
+                cleanup();
+                return false;
+
+            case 0x9: // Ping
+                sendPongFrame(payload);
+                break;
+
+            case 0xA: // Pong
+                handlePong(payload);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Cualquier pong demuestra que la conexión vive. Si trae nuestra marca de tiempo
+     * (8 bytes) se registra el RTT; los pongs no solicitados se ignoran para la medida.
+     */
+    private void handlePong(ByteBuffer payload) {
+        unansweredPings.set(0);
+        long rtt = -1;
+        if (payload.remaining() == Long.BYTES) {
+            rtt = System.nanoTime() - payload.getLong(payload.position());
+            if (rtt >= 0) {
+                rttHistogram.record(rtt);
+            } else {
+                rtt = -1;
+            }
+        }
+        callback.onPong(rtt);
+    }
+
+    /**
+     * El servidor no respondió a los últimos pings: se cierra el socket sin esperar
+     * a que TCP detecte el error.
+     */
+    private void onPingTimeout(int missed) {
+        if (closing.getAndSet(true)) return;
+        NetLog.w(TAG, "No pong after " + missed + " pings, closing dead connection");
+
+        Runnable task = () -> {
+            callback.onClose(1006, "Ping timeout");
+            cleanup();
+        };
+        if (loop != null) {
+            loop.execute(task);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Cierra la conexión por un error de protocolo: envía el frame de cierre con el código
+     * correspondiente y notifica al callback.
+     */
+    private void failConnection(int code, String reason) {
+        closing.set(true);
+        ByteBuffer payload = ByteBuffer.allocate(2).putShort(0, (short) code);
+        outbound.offer(OutboundQueue.Frame.binary(0x8, payload)); // Close frame con código
+        // Si no hay otro escritor activo, el close se escribe aquí antes de liberar el socket
+        if (writerScheduled.compareAndSet(false, true)) {
+            drainOutbound();
+        }
+        callback.onClose(code, reason);
+        cleanup();
+    }
+
+    // ==================== Transporte NIO ====================
+
+    private void connectNio() {
+        String host = uri.getHost();
+        int port = resolvePort();
+        connectDeadline = loop.schedule(this::onNioConnectTimeout, connectTimeoutMs);
+
+        loop.executeBlocking(() -> {
+            List<InetAddress> addresses;
+            try {
+                addresses = DualStackConnector.interleave(InetAddress.getAllByName(host));
+            } catch (IOException e) {
+                loop.execute(() -> nioHandler.onFailure(new IOException("Cannot resolve host: " + host, e)));
+                return;
+            }
+
+            loop.execute(() -> {
+                if (closing.get() || connectDeadline == null) return;
+                readBuffer.clear();
+                handshakeParser.reset();
+                nioAddresses = addresses;
+                nioAttempt = 0;
+                phaseStartNanos = System.nanoTime();
+                connectNextAddress(port);
+            });
+        });
+    }
+
+    /**
+     * Intenta la siguiente dirección. Sin un hilo por intento no se lanzan en paralelo:
+     * si una falla se pasa a la siguiente, dentro del mismo plazo global.
+     */
+    private void connectNextAddress(int port) {
+        InetAddress address = nioAddresses.get(nioAttempt++);
+        timings.connectAttempts = nioAttempt;
+        timings.addressFamily = address instanceof Inet6Address ? "IPv6" : "IPv4";
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            boolean connectedNow = channel.connect(new InetSocketAddress(address, port));
+            selectionKey = loop.register(channel, SelectionKey.OP_CONNECT, nioHandler);
+            if (connectedNow) {
+                nioHandler.onConnectable();
+            }
+        } catch (IOException e) {
+            nioHandler.onFailure(e);
+        }
+    }
+
+    private void onNioConnectTimeout() {
+        if (handshakeDone || connectDeadline == null) return;
+        // Sin más reintentos: el plazo es para toda la conexión
+        nioAddresses = null;
+        nioHandler.onFailure(new SocketTimeoutException("Connect timed out after " + connectTimeoutMs + "ms"));
+    }
+
+    private final NioEventLoop.Handler nioHandler = new NioEventLoop.Handler() {
+        @Override
+        public void onConnectable() throws IOException {
+            if (channel.isConnectionPending() && !channel.finishConnect()) {
+                return;
+            }
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            tcpConnected = true;
+            timings.tcpConnectMs = elapsedMs(phaseStartNanos);
+            phaseStartNanos = System.nanoTime();
+
+            handshakeKey = generateHandshakeKey();
+            String request = buildHandshakeRequest(uri.getHost(), resolvePort(), handshakeKey);
+            writeToChannel(ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        @Override
+        public void onReadable() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                if (!handshakeDone) {
+                    throw new IOException("Connection closed during handshake");
+                }
+                if (!closing.get()) {
+                    callback.onClose(1006, "Connection lost");
                 }
+                cleanup();
+                return;
+            }
 
-                // Procesar según opcode
-                switch (opcode) {
-                    case 0x1: // Text frame
-                        String message = new String(payload, "UTF-8");
-                        callback.onMessage(message);
-                        break;
-
-                    case 0x8: // Close frame
-                        int code = payloadLength >= 2 ?
-                                ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : 1000;
-                        String reason = payloadLength > 2 ?
-                                new String(payload, 2, payloadLength - 2, "UTF-8") : "";
-                        callback.onClose(code, reason);
-                        cleanup();
-                        return;
-
-                    case 0x9: // Ping
-                        sendPongFrame(payload);
-                        break;
-
-                    case 0xA: // Pong
-                        // Ignorar
-                        break;
+            readBuffer.flip();
+            try {
+                if (!handshakeDone && !readHandshakeResponse()) {
+                    return;
+                }
+                if (channel != null) {
+                    feedDecoder();
                 }
+            } finally {
+                readBuffer.compact();
+            }
+        }
+
+        @Override
+        public void onWritable() throws IOException {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer head = pendingWrites.peek();
+                channel.write(head);
+                if (head.hasRemaining()) return;
+                pendingWrites.poll();
+            }
+
+            if (closeAfterFlush) {
+                cleanup();
+                return;
+            }
+            updateInterestOps();
+            if (writerWaiting) {
+                writerWaiting = false;
+                drainOutbound();
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            if (!tcpConnected && nioAddresses != null && nioAttempt < nioAddresses.size() && !closing.get()) {
+                NetLog.d(TAG, "Connect attempt failed: " + e.getMessage());
+                cleanupNio();
+                connectNextAddress(resolvePort());
+                return;
             }
-        } catch (Exception e) {
             if (!closing.get()) {
-                Log.e(TAG, "Read error: " + e.getMessage());
+                NetLog.e(TAG, "Connection error: " + e.getMessage());
                 callback.onError(e);
             }
-        } finally {
             cleanup();
         }
+    };
+
+    /**
+     * Busca el final de los headers HTTP en el buffer de lectura y valida la respuesta.
+     * Los bytes posteriores quedan en el buffer para el decodificador de frames.
+     *
+     * @return true si el handshake se completó
+     */
+    private boolean readHandshakeResponse() throws IOException {
+        if (!handshakeParser.parse(readBuffer)) {
+            return false;
+        }
+        if (!checkHandshakeResponse(handshakeParser.getStatusLine(), handshakeParser.getHeaders(), handshakeKey)) {
+            throw new IOException("WebSocket handshake failed");
+        }
+        timings.upgradeMs = elapsedMs(phaseStartNanos);
+        NetLog.d(TAG, "Connected to " + uri.getHost() + ":" + resolvePort() + " " + timings);
+        connectDeadline.cancel();
+
+        handshakeDone = true;
+        connected.set(true);
+        callback.onOpen();
+        return true;
     }
 
-    private void sendFrame(String message) throws IOException {
-        byte[] payload = message.getBytes("UTF-8");
-        sendFrame(0x1, payload); // Text frame
+    private void closeNio() {
+        if (connected.get()) {
+            // El escritor envía el close detrás de lo pendiente y luego libera el canal
+            sendCloseFrame();
+        } else {
+            cleanup();
+        }
     }
 
-    private void sendCloseFrame() throws IOException {
-        sendFrame(0x8, new byte[0]); // Close frame
+    /**
+     * Escribe en el canal sin bloquear. Lo que no se pueda escribir se copia a la cola
+     * de pendientes y se espera a OP_WRITE. Solo desde el hilo del event loop.
+     */
+    private void writeToChannel(ByteBuffer frame) throws IOException {
+        if (pendingWrites.isEmpty()) {
+            channel.write(frame);
+        }
+        if (frame.hasRemaining()) {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            pendingWrites.add(copy);
+            updateInterestOps();
+        }
     }
 
-    private void sendPongFrame(byte[] payload) throws IOException {
-        sendFrame(0xA, payload); // Pong frame
+    /**
+     * OP_READ salvo con la lectura pausada (una vez completado el handshake) y OP_WRITE
+     * mientras haya escrituras pendientes. Solo desde el hilo del event loop.
+     */
+    private void updateInterestOps() {
+        if (selectionKey == null || !selectionKey.isValid()) return;
+
+        int ops = 0;
+        if (!readPaused || !handshakeDone) ops |= SelectionKey.OP_READ;
+        if (!pendingWrites.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        selectionKey.interestOps(ops);
     }
 
-    private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
-        if (outputStream == null) return;
+    // ==================== Escritura de frames ====================
 
-        // First byte: FIN + opcode
-        outputStream.write(0x80 | opcode);
+    private boolean enqueue(OutboundQueue.Frame frame) {
+        if (!outbound.offer(frame)) {
+            NetLog.w(TAG, "Send queue full (" + outbound.getQueuedBytes() + " bytes), message dropped");
+            return false;
+        }
+        scheduleWriter();
+        return true;
+    }
 
-        // Second byte: MASK + length
-        // Cliente siempre envía masked
-        int length = payload.length;
-        if (length < 126) {
-            outputStream.write(0x80 | length);
-        } else if (length < 65536) {
-            outputStream.write(0x80 | 126);
-            outputStream.write((length >> 8) & 0xFF);
-            outputStream.write(length & 0xFF);
+    private void sendCloseFrame() {
+        enqueue(OutboundQueue.Frame.binary(0x8, ByteBuffer.allocate(0))); // Close frame
+    }
+
+    private void sendPongFrame(ByteBuffer payload) {
+        // El payload solo es válido durante el callback del decoder: se copia
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload.duplicate()).flip();
+        enqueue(OutboundQueue.Frame.binary(0xA, copy)); // Pong frame
+    }
+
+    /**
+     * Arranca el escritor si no hay ninguno activo. Solo uno drena la cola a la vez,
+     * así que el orden de los frames es el de encolado.
+     */
+    private void scheduleWriter() {
+        if (!writerScheduled.compareAndSet(false, true)) return;
+
+        if (loop != null) {
+            loop.execute(this::drainOutbound);
         } else {
-            outputStream.write(0x80 | 127);
-            for (int i = 7; i >= 0; i--) {
-                outputStream.write((length >> (8 * i)) & 0xFF);
+            executor.execute(this::drainOutbound);
+        }
+    }
+
+    private void drainOutbound() {
+        try {
+            do {
+                if (!writeQueuedFrames()) {
+                    // Socket NIO lleno: se retoma en onWritable sin soltar el turno de escritor
+                    writerWaiting = true;
+                    return;
+                }
+                writerScheduled.set(false);
+                // Un productor pudo encolar justo antes de soltar el turno
+            } while (!outbound.isEmpty() && writerScheduled.compareAndSet(false, true));
+        } catch (IOException e) {
+            abortFragmented();
+            writerScheduled.set(false);
+            if (!closing.get()) {
+                NetLog.e(TAG, "Send error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Codifica lo pendiente en lotes de hasta {@link #MAX_BATCH_SIZE} y escribe cada lote
+     * con una sola llamada al socket. Los frames de control entran en cada lote antes que
+     * los datos, también entre los fragmentos de un mensaje grande.
+     *
+     * @return false si el canal NIO no admitió todo y hay que esperar a OP_WRITE
+     */
+    private boolean writeQueuedFrames() throws IOException {
+        while (true) {
+            if (outputStream == null && channel == null) {
+                abortFragmented();
+                outbound.clear();
+                return true;
+            }
+
+            encoder.reset();
+            long batchBytes = 0;
+            int count = 0;
+            boolean closeFrame = false;
+            OutboundQueue.Frame frame;
+            while (encoder.size() < MAX_BATCH_SIZE) {
+                if ((frame = outbound.pollControl()) != null) {
+                    encoder.append(frame.opcode, frame.data);
+                    batchBytes += frame.size;
+                    count++;
+                    continue;
+                }
+
+                if (encoder.hasFragmentsPending()) {
+                    count++;
+                    if (encoder.appendFragment(fragmentLength)) {
+                        batchBytes += fragmenting.size;
+                        fragmenting = null;
+                    }
+                    continue;
+                }
+
+                if ((frame = outbound.pollData()) == null) break;
+                count++;
+                int maxFragment = fragmentSize;
+                if (maxFragment > 0 && frame.size > maxFragment) {
+                    // Se manda por trozos en esta y las siguientes vueltas
+                    encoder.startFragmented(frame.opcode, frame.text, frame.data);
+                    fragmenting = frame;
+                    fragmentLength = maxFragment;
+                    continue;
+                }
+                if (frame.text != null) {
+                    encoder.appendText(frame.text);
+                } else {
+                    encoder.append(frame.opcode, frame.data);
+                }
+                batchBytes += frame.size;
+                if (frame.opcode == 0x8) {
+                    closeFrame = true;
+                    break;
+                }
+            }
+            if (count == 0) return true;
+
+            try {
+                if (encoder.size() > 0) {
+                    writeFrame(encoder.batch());
+                }
+            } finally {
+                encoder.reset();
+                outbound.release(batchBytes);
+            }
+
+            if (closeFrame) {
+                // Nada se envía después del close
+                outbound.clear();
+                if (channel != null && !pendingWrites.isEmpty()) {
+                    closeAfterFlush = true;
+                } else {
+                    cleanup();
+                }
+                return true;
+            }
+            if (channel != null && !pendingWrites.isEmpty()) {
+                return false;
             }
         }
+    }
 
-        // Masking key
-        byte[] maskKey = new byte[4];
-        new SecureRandom().nextBytes(maskKey);
-        outputStream.write(maskKey);
+    /**
+     * Descarta el mensaje fragmentado a medias, devolviendo sus bytes a la cola.
+     * Solo desde el escritor activo.
+     */
+    private void abortFragmented() {
+        if (fragmenting != null) {
+            encoder.abortFragmented();
+            outbound.release(fragmenting.size);
+            fragmenting = null;
+        }
+    }
 
-        // Masked payload
-        for (int i = 0; i < payload.length; i++) {
-            outputStream.write(payload[i] ^ maskKey[i % 4]);
+    /**
+     * Escribe frames ya codificados con una sola llamada al socket.
+     * Solo desde el escritor activo.
+     */
+    private void writeFrame(ByteBuffer frames) throws IOException {
+        if (channel != null) {
+            writeToChannel(frames);
+            return;
         }
 
-        outputStream.flush();
+        // cleanup() puede cerrar el socket desde otro hilo
+        OutputStream out = outputStream;
+        if (out == null) {
+            throw new IOException("Socket closed");
+        }
+        out.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+        out.flush();
     }
 
     private void cleanup() {
         connected.set(false);
+        synchronized (readPauseLock) {
+            // Despierta al lector si estaba pausado
+            readPauseLock.notifyAll();
+        }
+        assembler.reset();
+        decoder.reset();
+        outbound.clear();
+
+        if (loop != null) {
+            if (connectDeadline != null) {
+                connectDeadline.cancel();
+                connectDeadline = null;
+            }
+            nioAddresses = null;
+            cleanupNio();
+            return;
+        }
 
         try {
             if (inputStream != null) inputStream.close();
@@ -336,4 +1110,18 @@ public class WebSocketConnection {
         outputStream = null;
         socket = null;
     }
+
+    private void cleanupNio() {
+        if (selectionKey != null) selectionKey.cancel();
+
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {}
+
+        selectionKey = null;
+        channel = null;
+        pendingWrites.clear();
+        writerWaiting = false;
+        writerScheduled.set(false);
+    }
 }
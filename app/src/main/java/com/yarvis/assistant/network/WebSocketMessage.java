@@ -6,6 +6,7 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Modelos de mensajes para comunicación WebSocket con el backend.
@@ -172,6 +173,7 @@ public class WebSocketMessage {
      * Comando de voz enviado al backend.
      */
     public static class VoiceCommand extends BaseMessage {
+        public final String messageId;
         public final String text;
         public final long timestamp;
         public final String sessionId;
@@ -179,6 +181,7 @@ public class WebSocketMessage {
 
         public VoiceCommand(String text, String sessionId, boolean production) {
             super("voice_command");
+            this.messageId = UUID.randomUUID().toString();
             this.text = text;
             this.timestamp = System.currentTimeMillis();
             this.sessionId = sessionId;
@@ -198,6 +201,7 @@ public class WebSocketMessage {
             try {
                 JSONObject json = new JSONObject();
                 json.put("type", type);
+                json.put("messageId", messageId);
                 json.put("text", text);
                 json.put("timestamp", timestamp);
                 json.put("production", production);
@@ -215,6 +219,7 @@ public class WebSocketMessage {
      * Mensaje de chat escrito enviado al backend.
      */
     public static class ChatMessage extends BaseMessage {
+        public final String messageId;
         public final String text;
         public final long timestamp;
         public final String sessionId;
@@ -222,6 +227,7 @@ public class WebSocketMessage {
 
         public ChatMessage(String text, String sessionId, boolean production) {
             super("chat_message");
+            this.messageId = UUID.randomUUID().toString();
             this.text = text;
             this.timestamp = System.currentTimeMillis();
             this.sessionId = sessionId;
@@ -241,6 +247,7 @@ public class WebSocketMessage {
             try {
                 JSONObject json = new JSONObject();
                 json.put("type", type);
+                json.put("messageId", messageId);
                 json.put("text", text);
                 json.put("timestamp", timestamp);
                 json.put("production", production);
@@ -258,6 +265,7 @@ public class WebSocketMessage {
      * Notificación enviada al backend.
      */
     public static class NotificationMessage extends BaseMessage {
+        public final String messageId;
         public final String app;
         public final String title;
         public final String text;
@@ -265,6 +273,7 @@ public class WebSocketMessage {
 
         public NotificationMessage(String app, String title, String text, boolean production) {
             super("notification");
+            this.messageId = UUID.randomUUID().toString();
             this.app = app;
             this.title = title;
             this.text = text;
@@ -280,6 +289,7 @@ public class WebSocketMessage {
             try {
                 JSONObject json = new JSONObject();
                 json.put("type", type);
+                json.put("messageId", messageId);
                 json.put("app", app);
                 json.put("title", title);
                 json.put("text", text);
@@ -291,6 +301,63 @@ public class WebSocketMessage {
         }
     }
 
+    /**
+     * Varias notificaciones en un solo mensaje, sin repetir app y título: de cada par va la
+     * última recibida y cuántas llegaron.
+     */
+    public static class NotificationBatch extends BaseMessage {
+        public final String messageId;
+        public final List<Item> notifications;
+        public final boolean production;
+
+        public static class Item {
+            public final String app;
+            public final String title;
+            public final String text;
+            public final int count;
+            public final long timestamp;
+
+            public Item(String app, String title, String text, int count, long timestamp) {
+                this.app = app;
+                this.title = title;
+                this.text = text;
+                this.count = count;
+                this.timestamp = timestamp;
+            }
+        }
+
+        public NotificationBatch(List<Item> notifications, boolean production) {
+            super("notification_batch");
+            this.messageId = UUID.randomUUID().toString();
+            this.notifications = notifications;
+            this.production = production;
+        }
+
+        @Override
+        public String toJson() {
+            try {
+                JSONArray items = new JSONArray();
+                for (Item item : notifications) {
+                    JSONObject json = new JSONObject();
+                    json.put("app", item.app);
+                    json.put("title", item.title);
+                    json.put("text", item.text);
+                    json.put("count", item.count);
+                    json.put("timestamp", item.timestamp);
+                    items.put(json);
+                }
+                JSONObject json = new JSONObject();
+                json.put("type", type);
+                json.put("messageId", messageId);
+                json.put("notifications", items);
+                json.put("production", production);
+                return json.toString();
+            } catch (JSONException e) {
+                return "{}";
+            }
+        }
+    }
+
     /**
      * Mensaje para terminar una conversación.
      */
@@ -321,11 +388,53 @@ public class WebSocketMessage {
     }
 
     /**
-     * Ping para mantener conexión viva.
+     * Reanuda la conexión anterior con su token, pidiendo los mensajes posteriores a lastSeq.
      */
-    public static class Ping extends BaseMessage {
-        public Ping() {
-            super("ping");
+    public static class Resume extends BaseMessage {
+        public final String token;
+        public final long lastSeq;
+
+        public Resume(String token, long lastSeq) {
+            super("resume");
+            this.token = token;
+            this.lastSeq = lastSeq;
+        }
+
+        @Override
+        public String toJson() {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("type", type);
+                json.put("token", token);
+                json.put("lastSeq", lastSeq);
+                return json.toString();
+            } catch (JSONException e) {
+                return "{}";
+            }
+        }
+    }
+
+    /**
+     * Confirma los mensajes del servidor recibidos hasta seq (incluido).
+     */
+    public static class SeqAck extends BaseMessage {
+        public final long seq;
+
+        public SeqAck(long seq) {
+            super("seq_ack");
+            this.seq = seq;
+        }
+
+        @Override
+        public String toJson() {
+            try {
+                JSONObject json = new JSONObject();
+                json.put("type", type);
+                json.put("seq", seq);
+                return json.toString();
+            } catch (JSONException e) {
+                return "{}";
+            }
         }
     }
 
@@ -340,13 +449,64 @@ public class WebSocketMessage {
         public final String sessionId;
         public final String messageId;
         public final ShowContent show;
+        /** messageId del mensaje del cliente al que responde, o null si no responde a ninguno. */
+        public final String replyTo;
 
         public Response(String text, boolean speak, String sessionId, String messageId, ShowContent show) {
+            this(text, speak, sessionId, messageId, show, null);
+        }
+
+        public Response(String text, boolean speak, String sessionId, String messageId, ShowContent show,
+                        String replyTo) {
             this.text = text;
             this.speak = speak;
             this.sessionId = sessionId;
             this.messageId = messageId;
             this.show = show;
+            this.replyTo = replyTo;
+        }
+
+        public static Response fromJson(JSONObject json) {
+            return new Response(
+                    json.optString("text", ""),
+                    json.optBoolean("speak", false),
+                    json.optString("sessionId", null),
+                    json.optString("messageId", null),
+                    ShowContent.fromJson(json.optJSONObject("show")),
+                    json.optString("replyTo", null)
+            );
+        }
+    }
+
+    /**
+     * Fragmento de una respuesta que el agente aún está generando. Todos los fragmentos de
+     * una respuesta comparten messageId; la respuesta completa llega después como
+     * {@code response_end} con ese mismo messageId.
+     */
+    public static class ResponseChunk {
+        /** Texto nuevo desde el fragmento anterior. */
+        public final String text;
+        public final boolean speak;
+        public final String sessionId;
+        public final String messageId;
+        public final String replyTo;
+
+        public ResponseChunk(String text, boolean speak, String sessionId, String messageId, String replyTo) {
+            this.text = text;
+            this.speak = speak;
+            this.sessionId = sessionId;
+            this.messageId = messageId;
+            this.replyTo = replyTo;
+        }
+
+        public static ResponseChunk fromJson(JSONObject json) {
+            return new ResponseChunk(
+                    json.optString("text", ""),
+                    json.optBoolean("speak", false),
+                    json.optString("sessionId", null),
+                    json.optString("messageId", ""),
+                    json.optString("replyTo", null)
+            );
         }
     }
 
@@ -365,6 +525,15 @@ public class WebSocketMessage {
             this.context = context;
             this.show = show;
         }
+
+        public static StartConversation fromJson(JSONObject json) {
+            return new StartConversation(
+                    json.optString("sessionId", ""),
+                    json.optString("greeting", ""),
+                    json.optJSONObject("context"),
+                    ShowContent.fromJson(json.optJSONObject("show"))
+            );
+        }
     }
 
     /**
@@ -374,11 +543,26 @@ public class WebSocketMessage {
         public final String sessionId;
         public final String farewell;
         public final String reason;
+        public final String replyTo;
 
         public EndConversationResponse(String sessionId, String farewell, String reason) {
+            this(sessionId, farewell, reason, null);
+        }
+
+        public EndConversationResponse(String sessionId, String farewell, String reason, String replyTo) {
             this.sessionId = sessionId;
             this.farewell = farewell;
             this.reason = reason;
+            this.replyTo = replyTo;
+        }
+
+        public static EndConversationResponse fromJson(JSONObject json) {
+            return new EndConversationResponse(
+                    json.optString("sessionId", ""),
+                    json.optString("farewell", ""),
+                    json.optString("reason", "system"),
+                    json.optString("replyTo", null)
+            );
         }
     }
 
@@ -393,6 +577,10 @@ public class WebSocketMessage {
             this.action = action;
             this.params = params;
         }
+
+        public static Action fromJson(JSONObject json) {
+            return new Action(json.optString("action", ""), json.optJSONObject("params"));
+        }
     }
 
     /**
@@ -400,62 +588,19 @@ public class WebSocketMessage {
      */
     public static class Error {
         public final String message;
+        public final String replyTo;
 
         public Error(String message) {
+            this(message, null);
+        }
+
+        public Error(String message, String replyTo) {
             this.message = message;
+            this.replyTo = replyTo;
         }
-    }
 
-    /**
-     * Parsea un mensaje recibido del servidor.
-     */
-    public static Object parseServerMessage(String jsonString) {
-        try {
-            JSONObject json = new JSONObject(jsonString);
-            String type = json.optString("type", "");
-
-            switch (type) {
-                case "response":
-                    return new Response(
-                            json.optString("text", ""),
-                            json.optBoolean("speak", false),
-                            json.optString("sessionId", null),
-                            json.optString("messageId", null),
-                            ShowContent.fromJson(json.optJSONObject("show"))
-                    );
-
-                case "start_conversation":
-                    return new StartConversation(
-                            json.optString("sessionId", ""),
-                            json.optString("greeting", ""),
-                            json.optJSONObject("context"),
-                            ShowContent.fromJson(json.optJSONObject("show"))
-                    );
-
-                case "end_conversation":
-                    return new EndConversationResponse(
-                            json.optString("sessionId", ""),
-                            json.optString("farewell", ""),
-                            json.optString("reason", "system")
-                    );
-
-                case "action":
-                    return new Action(
-                            json.optString("action", ""),
-                            json.optJSONObject("params")
-                    );
-
-                case "error":
-                    return new Error(json.optString("message", "Error desconocido"));
-
-                case "pong":
-                    return "pong";
-
-                default:
-                    return null;
-            }
-        } catch (JSONException e) {
-            return new Error("Error parsing message: " + e.getMessage());
+        public static Error fromJson(JSONObject json) {
+            return new Error(json.optString("message", "Error desconocido"), json.optString("replyTo", null));
         }
     }
 }
@@ -0,0 +1,24 @@
+package com.yarvis.assistant.network;
+
+import java.io.IOException;
+
+/**
+ * Error de protocolo WebSocket que obliga a cerrar la conexión con un código concreto
+ * (RFC 6455, sección 7.4.1), p. ej. 1002 (protocol error) o 1009 (message too big).
+ */
+class WebSocketProtocolException extends IOException {
+
+    static final int PROTOCOL_ERROR = 1002;
+    static final int MESSAGE_TOO_BIG = 1009;
+
+    private final int closeCode;
+
+    WebSocketProtocolException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    int getCloseCode() {
+        return closeCode;
+    }
+}
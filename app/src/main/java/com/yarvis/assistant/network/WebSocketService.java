@@ -9,7 +9,9 @@ import android.content.Intent;
 import android.content.pm.ServiceInfo;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -17,11 +19,18 @@ import androidx.core.app.NotificationCompat;
 import com.yarvis.assistant.MainActivity;
 import com.yarvis.assistant.R;
 
+import java.io.File;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * Foreground Service dedicado para mantener la conexión WebSocket persistente.
  * Este servicio se mantiene activo independientemente del ciclo de vida de las Activities.
+ *
+ * Los eventos llegan en el hilo de despacho del cliente, en segundo plano. Los listeners
+ * de UI se registran con {@link #getUiExecutor()} para recibirlos en el hilo principal.
  */
 public class WebSocketService extends Service implements YarvisWebSocketClient.ConnectionListener {
 
@@ -33,6 +42,7 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
 
     private static final String CHANNEL_ID = "yarvis_websocket_channel";
     private static final int NOTIFICATION_ID = 2;
+    private static final String OUTBOX_FILE = "websocket_outbox.journal";
 
     private static volatile boolean isRunning = false;
 
@@ -40,11 +50,13 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
     private YarvisWebSocketClient webSocketClient;
     private ServerConfig serverConfig;
 
-    private final CopyOnWriteArrayList<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<YarvisWebSocketClient.ConnectionListener> messageListeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Registration<ConnectionStateListener>> stateListeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Registration<YarvisWebSocketClient.ConnectionListener>> messageListeners = new CopyOnWriteArrayList<>();
+    // Eventos para listeners de UI: una ráfaga se entrega en un solo post al hilo principal
+    private final Executor uiExecutor = new MainThreadBatcher(new Handler(Looper.getMainLooper()));
 
-    private boolean isConnected = false;
-    private boolean isAuthenticated = false;
+    private volatile boolean isConnected = false;
+    private volatile boolean isAuthenticated = false;
 
     /**
      * Listener para cambios de estado de conexión.
@@ -53,6 +65,28 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
         void onConnectionStateChanged(boolean connected, boolean authenticated);
     }
 
+    /**
+     * Listener junto al executor en el que recibe los eventos (null = directamente en el
+     * hilo que los genera).
+     */
+    private static final class Registration<T> {
+        final T listener;
+        final Executor executor;
+
+        Registration(T listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void deliver(Consumer<T> event) {
+            if (executor == null) {
+                event.accept(listener);
+            } else {
+                executor.execute(() -> event.accept(listener));
+            }
+        }
+    }
+
     public class LocalBinder extends Binder {
         public WebSocketService getService() {
             return WebSocketService.this;
@@ -143,11 +177,11 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
      * Conecta al backend con la configuración actual.
      */
     public void connect() {
-        String serverUrl = serverConfig.getServerUrl();
+        List<String> serverUrls = serverConfig.getServerUrls();
         String password = serverConfig.getPassword();
         String agentName = serverConfig.getAgentName();
 
-        if (serverUrl == null || serverUrl.isEmpty() || password == null || password.isEmpty()) {
+        if (serverUrls.isEmpty() || password == null || password.isEmpty()) {
             Log.w(TAG, "Cannot connect: missing URL or password");
             return;
         }
@@ -157,13 +191,16 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
             webSocketClient.destroy();
         }
 
-        webSocketClient = new YarvisWebSocketClient(serverUrl);
+        webSocketClient = new YarvisWebSocketClient(serverUrls, null);
         webSocketClient.setCredentials(password, agentName);
         webSocketClient.setProductionMode(serverConfig.isProductionMode());
+        webSocketClient.setNioTransport(serverConfig.isNioTransportEnabled());
+        webSocketClient.setConnectivityMonitor(new AndroidConnectivityMonitor(this));
+        webSocketClient.setOutboxFile(new File(getNoBackupFilesDir(), OUTBOX_FILE));
         webSocketClient.setListener(this);
         webSocketClient.connect();
         String envLabel = serverConfig.isProductionMode() ? "PROD" : "DEV";
-        Log.d(TAG, "Connecting to: " + serverUrl + " as " + agentName + " [" + envLabel + "]");
+        Log.d(TAG, "Connecting to: " + serverUrls + " as " + agentName + " [" + envLabel + "]");
     }
 
     /**
@@ -223,13 +260,33 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
     // ==================== Listeners Management ====================
 
     /**
-     * Agrega un listener para cambios de estado de conexión.
+     * Executor del hilo principal para registrar listeners de UI. Agrupa los eventos que
+     * llegan en ráfaga en un único post.
+     */
+    public Executor getUiExecutor() {
+        return uiExecutor;
+    }
+
+    /**
+     * Agrega un listener para cambios de estado de conexión. Se le llama
+     * directamente en el hilo que genera el evento, normalmente el de despacho del cliente.
      */
     public void addConnectionStateListener(ConnectionStateListener listener) {
-        if (!stateListeners.contains(listener)) {
-            stateListeners.add(listener);
+        addConnectionStateListener(listener, null);
+    }
+
+    /**
+     * Agrega un listener para cambios de estado de conexión que los recibe en
+     * {@code executor} (p. ej. {@link #getUiExecutor()}).
+     */
+    public void addConnectionStateListener(ConnectionStateListener listener, Executor executor) {
+        if (!isRegistered(stateListeners, listener)) {
+            Registration<ConnectionStateListener> registration = new Registration<>(listener, executor);
+            stateListeners.add(registration);
             // Notificar estado actual
-            listener.onConnectionStateChanged(isConnected, isAuthenticated);
+            boolean connected = isConnected;
+            boolean authenticated = isAuthenticated;
+            registration.deliver(l -> l.onConnectionStateChanged(connected, authenticated));
         }
     }
 
@@ -237,15 +294,24 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
      * Elimina un listener de estado de conexión.
      */
     public void removeConnectionStateListener(ConnectionStateListener listener) {
-        stateListeners.remove(listener);
+        stateListeners.removeIf(registration -> registration.listener == listener);
     }
 
     /**
-     * Agrega un listener para mensajes del WebSocket.
+     * Agrega un listener para mensajes del WebSocket. Se le llama
+     * directamente en el hilo que genera el evento, normalmente el de despacho del cliente.
      */
     public void addMessageListener(YarvisWebSocketClient.ConnectionListener listener) {
-        if (!messageListeners.contains(listener)) {
-            messageListeners.add(listener);
+        addMessageListener(listener, null);
+    }
+
+    /**
+     * Agrega un listener para mensajes del WebSocket que los recibe en {@code executor}
+     * (p. ej. {@link #getUiExecutor()}).
+     */
+    public void addMessageListener(YarvisWebSocketClient.ConnectionListener listener, Executor executor) {
+        if (!isRegistered(messageListeners, listener)) {
+            messageListeners.add(new Registration<>(listener, executor));
         }
     }
 
@@ -253,12 +319,29 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
      * Elimina un listener de mensajes.
      */
     public void removeMessageListener(YarvisWebSocketClient.ConnectionListener listener) {
-        messageListeners.remove(listener);
+        messageListeners.removeIf(registration -> registration.listener == listener);
+    }
+
+    private static <T> boolean isRegistered(CopyOnWriteArrayList<Registration<T>> registrations, T listener) {
+        for (Registration<T> registration : registrations) {
+            if (registration.listener == listener) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void notifyConnectionStateChanged() {
-        for (ConnectionStateListener listener : stateListeners) {
-            listener.onConnectionStateChanged(isConnected, isAuthenticated);
+        boolean connected = isConnected;
+        boolean authenticated = isAuthenticated;
+        for (Registration<ConnectionStateListener> registration : stateListeners) {
+            registration.deliver(l -> l.onConnectionStateChanged(connected, authenticated));
+        }
+    }
+
+    private void notifyMessageListeners(Consumer<YarvisWebSocketClient.ConnectionListener> event) {
+        for (Registration<YarvisWebSocketClient.ConnectionListener> registration : messageListeners) {
+            registration.deliver(event);
         }
     }
 
@@ -348,9 +431,7 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
         notifyConnectionStateChanged();
 
         // Propagar a listeners
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onConnected();
-        }
+        notifyMessageListeners(YarvisWebSocketClient.ConnectionListener::onConnected);
     }
 
     @Override
@@ -362,50 +443,48 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
         notifyConnectionStateChanged();
 
         // Propagar a listeners
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onDisconnected();
-        }
+        notifyMessageListeners(YarvisWebSocketClient.ConnectionListener::onDisconnected);
     }
 
     @Override
     public void onResponse(WebSocketMessage.Response response) {
         Log.d(TAG, "Response received: \"" + response.text + "\" speak=" + response.speak + " (listeners: " + messageListeners.size() + ")");
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            Log.d(TAG, "Notifying listener: " + listener.getClass().getSimpleName());
-            listener.onResponse(response);
-        }
+        notifyMessageListeners(l -> l.onResponse(response));
+    }
+
+    @Override
+    public void onResponseChunk(WebSocketMessage.ResponseChunk chunk) {
+        notifyMessageListeners(l -> l.onResponseChunk(chunk));
+    }
+
+    @Override
+    public void onResponseEnd(WebSocketMessage.Response response) {
+        Log.d(TAG, "Streamed response ended: \"" + response.text + "\" (listeners: " + messageListeners.size() + ")");
+        notifyMessageListeners(l -> l.onResponseEnd(response));
     }
 
     @Override
     public void onAction(String action, String params) {
         Log.d(TAG, "Action received: " + action + " (listeners: " + messageListeners.size() + ")");
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onAction(action, params);
-        }
+        notifyMessageListeners(l -> l.onAction(action, params));
     }
 
     @Override
     public void onError(String message) {
         Log.e(TAG, "Error from backend: " + message + " (listeners: " + messageListeners.size() + ")");
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onError(message);
-        }
+        notifyMessageListeners(l -> l.onError(message));
     }
 
     @Override
     public void onConversationStarted(String sessionId, String greeting, WebSocketMessage.ShowContent show) {
         Log.i(TAG, "Conversation started: " + sessionId);
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onConversationStarted(sessionId, greeting, show);
-        }
+        notifyMessageListeners(l -> l.onConversationStarted(sessionId, greeting, show));
     }
 
     @Override
     public void onConversationEnded(String sessionId, String farewell, String reason) {
         Log.i(TAG, "Conversation ended: " + sessionId);
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onConversationEnded(sessionId, farewell, reason);
-        }
+        notifyMessageListeners(l -> l.onConversationEnded(sessionId, farewell, reason));
     }
 
     @Override
@@ -415,16 +494,12 @@ public class WebSocketService extends Service implements YarvisWebSocketClient.C
         updateNotification();
         notifyConnectionStateChanged();
 
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onAuthResult(success, message);
-        }
+        notifyMessageListeners(l -> l.onAuthResult(success, message));
     }
 
     @Override
     public void onPasswordChangeResult(boolean success, String message) {
         Log.i(TAG, "Password change result: " + success);
-        for (YarvisWebSocketClient.ConnectionListener listener : messageListeners) {
-            listener.onPasswordChangeResult(success, message);
-        }
+        notifyMessageListeners(l -> l.onPasswordChangeResult(success, message));
     }
 }
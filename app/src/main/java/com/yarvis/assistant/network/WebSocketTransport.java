@@ -0,0 +1,143 @@
+package com.yarvis.assistant.network;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * Transporte de mensajes WebSocket que usa {@link YarvisWebSocketClient}.
+ *
+ * {@link WebSocketConnection} es la implementación sobre sockets reales;
+ * {@link LoopbackTransport} conecta el cliente con un servidor en memoria para pruebas
+ * de carga y benchmarks sin red.
+ */
+public interface WebSocketTransport {
+
+    /**
+     * Clase de prioridad de un mensaje saliente. Cada una tiene su carril en la cola de
+     * salida y se escriben en este orden.
+     */
+    enum Priority {
+        /** Lo que el usuario está esperando: comandos de voz y chats. */
+        INTERACTIVE,
+        /** Mensajes de la sesión (auth, fin de conversación, acks...). */
+        NORMAL,
+        /** Tráfico de fondo que puede esperar, como las notificaciones reenviadas. */
+        BULK
+    }
+
+    interface Callback {
+        void onOpen();
+        void onMessage(String message);
+        void onClose(int code, String reason);
+        void onError(Exception ex);
+
+        /**
+         * true si los mensajes de texto fragmentados se entregan trozo a trozo con
+         * {@link #onMessageFragment}; con false (por defecto) se reensamblan y llegan
+         * completos a {@link #onMessage(String)}. Se consulta una sola vez, al crear la
+         * conexión.
+         */
+        default boolean acceptsMessageFragments() {
+            return false;
+        }
+
+        /**
+         * Trozo de un mensaje de texto fragmentado, en cuanto llega cada frame. Solo se usa
+         * si {@link #acceptsMessageFragments()} devuelve true. Los mensajes comprimidos se
+         * reensamblan siempre y llegan por {@link #onMessage(String)}.
+         *
+         * El mensaje entero sigue sujeto al tamaño máximo: si lo supera, la conexión se
+         * cierra con 1009 sin que llegue el trozo final.
+         *
+         * @param last true en el último trozo del mensaje
+         */
+        default void onMessageFragment(String fragment, boolean last) {
+        }
+
+        /**
+         * Recibe un mensaje binario completo (opcode 0x2).
+         * El buffer es de solo lectura y se reutiliza: solo es válido durante la llamada,
+         * así que hay que copiar lo que se quiera conservar.
+         */
+        default void onBinary(ByteBuffer data) {
+        }
+
+        /**
+         * La cola de salida superó la marca alta ({@code writable=false}) o volvió a bajar
+         * de la marca baja ({@code writable=true}). Puede llamarse desde cualquier hilo.
+         */
+        default void onWritabilityChanged(boolean writable) {
+        }
+
+        /**
+         * Llegó un pong. {@code rttNanos} es el RTT del ping que contesta, o -1 si el pong
+         * no traía nuestra marca de tiempo. Se llama en el hilo lector: debe volver rápido.
+         */
+        default void onPong(long rttNanos) {
+        }
+    }
+
+    /**
+     * Crea un transporte nuevo para cada intento de conexión.
+     */
+    interface Factory {
+        WebSocketTransport create(URI uri, Callback callback);
+    }
+
+    void connect();
+
+    /**
+     * @return false si no hay conexión o la cola de salida está llena
+     */
+    boolean send(String message);
+
+    /**
+     * Como {@link #send(String)} (que usa {@link Priority#NORMAL}), pero en el carril de
+     * {@code priority}.
+     */
+    boolean send(String message, Priority priority);
+
+    /**
+     * Envía los bytes restantes de {@code data}. El llamador puede reutilizar el buffer
+     * en cuanto vuelve la llamada.
+     */
+    boolean sendBinary(ByteBuffer data);
+
+    /**
+     * Ping de protocolo para mantener viva la conexión y medir el RTT.
+     *
+     * @return false si no se envió (sin conexión, lectura pausada o conexión dada por
+     *         muerta): no hay que esperar pong
+     */
+    boolean sendPing();
+
+    void close();
+
+    /**
+     * Deja de leer del socket hasta {@link #resumeReading()}, para que la contrapresión
+     * de TCP llegue al servidor. Los frames ya leídos se siguen entregando.
+     * Se puede llamar desde cualquier hilo.
+     */
+    void pauseReading();
+
+    void resumeReading();
+
+    boolean isConnected();
+
+    /**
+     * false mientras la cola de salida esté por encima de la marca alta.
+     */
+    boolean isWritable();
+
+    long getQueuedBytes();
+
+    RttHistogram getRttHistogram();
+
+    /**
+     * Tiempo que esperan en la cola de salida los mensajes de {@code priority} hasta que
+     * el escritor los toma.
+     */
+    LatencyHistogram getQueueWaitHistogram(Priority priority);
+
+    ConnectTimings getConnectTimings();
+}
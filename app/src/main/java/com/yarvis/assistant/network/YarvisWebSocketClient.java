@@ -1,36 +1,91 @@
 package com.yarvis.assistant.network;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Cliente WebSocket para comunicación con el backend de Yarvis.
- * Maneja reconexión automática, sesiones de conversación, autenticación y ping/pong.
+ * Maneja reconexión automática (reanudando la conexión anterior si el servidor aún la
+ * conserva), sesiones de conversación, autenticación y ping/pong.
+ * Con varios endpoints del backend usa el de menor RTT, conmuta si el actual falla y
+ * vuelve a medirlos periódicamente.
  */
 public class YarvisWebSocketClient {
 
     private static final String TAG = "YarvisWebSocket";
-    private static final int RECONNECT_DELAY_MS = 5000;
-    private static final int PING_INTERVAL_MS = 30000;
+    // Backoff de reconexión: de 1 s hasta 2 min entre intentos
+    private static final int RECONNECT_BASE_DELAY_MS = 1000;
+    private static final int RECONNECT_MAX_DELAY_MS = 120000;
+    // Espera máxima del pong de un heartbeat antes de darlo por perdido
+    private static final long PONG_TIMEOUT_MS = 10000;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    // Tiempo que un mensaje sin ack sigue mereciendo la pena reenviar: un comando de voz
+    // pierde sentido en minutos, un chat escrito no
+    private static final long VOICE_COMMAND_TTL_MS = 2 * 60 * 1000L;
+    private static final long CHAT_MESSAGE_TTL_MS = 24 * 60 * 60 * 1000L;
+    private static final long NOTIFICATION_TTL_MS = 30 * 60 * 1000L;
+    // Mensajes entrantes despachados por cada tarea del executor de despacho
+    private static final int MAX_DISPATCH_BATCH = 32;
+
+    // Algo más que el timeout del workflow en el backend (30s)
+    private static final long DEFAULT_REQUEST_TIMEOUT_MS = 45000;
+    // Cada cuánto se vuelven a medir los endpoints estando conectado
+    private static final long DEFAULT_ENDPOINT_RECHECK_MS = 5 * 60 * 1000L;
 
-    private final String serverUrl;
-    private final Handler mainHandler;
+    private final EndpointSelector endpoints;
+    // Executor serie en el que se procesan los mensajes y se avisa al listener
+    private final ExecutorService defaultDispatchExecutor;
+    private volatile Executor dispatchExecutor;
     private final ScheduledExecutorService scheduler;
-    private WebSocketConnection connection;
+    private final WebSocketTransport.Factory transportFactory;
+    // La cambian connect/disconnect y el cambio de endpoint en el planificador: se lee una
+    // sola vez en una variable local antes de usarla
+    private volatile WebSocketTransport connection;
+    // Se incrementa en cada intento de conexión: los callbacks de transportes anteriores
+    // (p. ej. el que se cierra al cambiar de endpoint) se ignoran
+    private final AtomicInteger connectGeneration = new AtomicInteger();
+    private final AtomicBoolean probingEndpoints = new AtomicBoolean(false);
+    // Tipo de red en la última medición de endpoints; en otra red se vuelven a medir
+    private volatile String probedNetworkType;
+    private ScheduledFuture<?> endpointRecheckTask;
+    private long endpointRecheckIntervalMs = DEFAULT_ENDPOINT_RECHECK_MS;
+    // Heartbeat adaptativo; salvo lastReceivedNanos, su estado (pingTask incluido) solo se
+    // toca en el planificador
     private ScheduledFuture<?> pingTask;
+    private final AdaptiveHeartbeat heartbeat = new AdaptiveHeartbeat();
+    private volatile long lastReceivedNanos;
+    private boolean awaitingPong;
+    private long pingIdleMs;
+    private final AtomicLong skippedPings = new AtomicLong();
+    // Reintento de conexión pendiente; solo se toca en el planificador
     private ScheduledFuture<?> reconnectTask;
-    private boolean shouldBeConnected = false;
-    private boolean isAuthenticated = false;
+    private final ReconnectBackoff backoff =
+            new ReconnectBackoff(RECONNECT_BASE_DELAY_MS, RECONNECT_MAX_DELAY_MS, new Random());
+    private volatile boolean shouldBeConnected = false;
+    private volatile boolean isAuthenticated = false;
     private ConnectionListener listener;
 
     // Credenciales para autenticación
@@ -40,8 +95,71 @@ public class YarvisWebSocketClient {
     // Modo de producción
     private boolean productionMode = false;
 
+    // Transporte NIO compartido (solo ws://)
+    private boolean nioTransport = false;
+
+    // Mensajes enviados pendientes de ack, persistidos en disco (null = sin outbox)
+    private Outbox outbox;
+
+    // Estado de la red: sin red no se reintenta y al volver se reconecta en el acto
+    private ConnectivityMonitor connectivityMonitor;
+    private volatile boolean waitingForNetwork = false;
+
     // Sesión de conversación activa
-    private String activeSessionId = null;
+    private volatile String activeSessionId = null;
+
+    // Reanudación: token del último auth/resume y seq del último mensaje del servidor
+    // procesado. Con token, al reconectar se pide solo lo perdido en vez de autenticar.
+    private volatile String resumeToken;
+    private volatile long lastSeq;
+    private long ackedSeq;
+
+    // Notificaciones descartadas mientras la cola de salida estaba por encima de la marca alta
+    private final AtomicLong droppedNotifications = new AtomicLong();
+    // Agrupación de notificaciones y límite de ritmo de los lotes que salen de ella
+    private final NotificationBatcher notificationBatcher;
+    private final NotificationThrottle notificationThrottle;
+
+    // Peticiones con future esperando su respuesta (por messageId)
+    private final PendingRequests pendingRequests;
+    private volatile long requestTimeoutMs = DEFAULT_REQUEST_TIMEOUT_MS;
+
+    // Mensajes recibidos pendientes de despachar. Si se llena,
+    // se pausa la lectura del socket hasta que el despacho se ponga al día
+    private final InboundQueue inbound = new InboundQueue(this::onReadPausedChanged);
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+    // Manejadores de los mensajes del servidor por tipo
+    private final ServerMessageRegistry serverMessages = new ServerMessageRegistry();
+    // Hilo que está ejecutando drainInbound(), o null
+    private volatile Thread dispatchThread;
+
+    /**
+     * Qué hacer con una notificación que llega por encima del límite de ritmo.
+     */
+    public enum NotificationOverflow {
+        /** Descartarla. */
+        DROP,
+        /**
+         * Retenerla hasta que haya hueco, fusionada con las retenidas de la misma app y
+         * título (se envía la más reciente con la cuenta de todas).
+         */
+        MERGE
+    }
+
+    /**
+     * Resultado de enviar un comando de voz o un mensaje de chat.
+     */
+    public enum SendResult {
+        /** Entregado a la conexión autenticada. */
+        SENT,
+        /**
+         * Sin conexión autenticada (o con la cola llena): guardado en el outbox, se enviará
+         * al reconectar. Para el usuario está pendiente, no enviado.
+         */
+        QUEUED,
+        /** No se pudo enviar ni guardar; ya se avisó con {@link ConnectionListener#onError}. */
+        FAILED
+    }
 
     /**
      * Listener para eventos del WebSocket.
@@ -50,6 +168,21 @@ public class YarvisWebSocketClient {
         void onConnected();
         void onDisconnected();
         void onResponse(WebSocketMessage.Response response);
+
+        /**
+         * Fragmento de una respuesta en streaming, en cuanto llega. Por defecto se ignora y
+         * se espera a {@link #onResponseEnd}.
+         */
+        default void onResponseChunk(WebSocketMessage.ResponseChunk chunk) {
+        }
+
+        /**
+         * Respuesta completa que antes llegó por fragmentos. Por defecto se trata como
+         * cualquier otra respuesta.
+         */
+        default void onResponseEnd(WebSocketMessage.Response response) {
+            onResponse(response);
+        }
         void onAction(String action, String params);
         void onError(String message);
         void onConversationStarted(String sessionId, String greeting, WebSocketMessage.ShowContent show);
@@ -59,15 +192,80 @@ public class YarvisWebSocketClient {
     }
 
     public YarvisWebSocketClient(String serverUrl) {
-        this.serverUrl = serverUrl;
-        this.mainHandler = new Handler(Looper.getMainLooper());
+        this(serverUrl, null);
+    }
+
+    /**
+     * @param transportFactory crea el transporte de cada conexión (p. ej.
+     *                         {@link LoopbackTransport#factory} para pruebas sin red),
+     *                         o null para usar sockets reales
+     */
+    public YarvisWebSocketClient(String serverUrl, WebSocketTransport.Factory transportFactory) {
+        this(Collections.singletonList(serverUrl), transportFactory);
+    }
+
+    /**
+     * @param serverUrls endpoints del mismo backend en orden de preferencia (p. ej. la IP
+     *                   de la LAN y el ingress público); se usa el de menor RTT
+     */
+    public YarvisWebSocketClient(List<String> serverUrls, WebSocketTransport.Factory transportFactory) {
+        this.endpoints = new EndpointSelector(serverUrls);
+        this.defaultDispatchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "yarvis-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatchExecutor = defaultDispatchExecutor;
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.pendingRequests = new PendingRequests(scheduler);
+        this.notificationBatcher = new NotificationBatcher(scheduler, this::onNotificationBatch);
+        this.notificationThrottle = new NotificationThrottle(scheduler, this::sendNotificationBatch);
+        this.transportFactory = transportFactory != null ? transportFactory : this::createSocketTransport;
+        registerServerMessageHandlers();
     }
 
     public void setListener(ConnectionListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Atiende los mensajes del servidor de tipo {@code type} que el cliente no conoce.
+     * {@code parser} convierte el JSON (ya parseado) en el mensaje y {@code handler} lo
+     * procesa en el executor de despacho. Sustituye a un manejador anterior del mismo tipo,
+     * incluidos los propios del cliente.
+     */
+    public <T> void setServerMessageHandler(String type, Function<JSONObject, T> parser,
+                                            Consumer<? super T> handler) {
+        serverMessages.register(type, parser, handler);
+    }
+
+    /**
+     * Cada cuánto se vuelven a medir los endpoints estando conectado, para pasar a uno
+     * claramente más rápido (p. ej. la LAN al llegar a casa). Debe llamarse antes de
+     * connect(); no aplica con un solo endpoint.
+     */
+    public void setEndpointRecheckInterval(long intervalMs) {
+        this.endpointRecheckIntervalMs = intervalMs;
+    }
+
+    /**
+     * Endpoint al que se conecta o se conectará el cliente.
+     */
+    public String getCurrentEndpoint() {
+        return endpoints.current();
+    }
+
+    /**
+     * Executor en el que se procesan los mensajes recibidos y se llama al listener. Por
+     * defecto es un hilo propio en segundo plano, para no cargar el hilo principal con
+     * trabajo que no es de UI; quien necesite la UI debe saltar a ella por su cuenta.
+     * Debe ejecutar las tareas de una en una y en orden (p. ej. un Handler), o los
+     * eventos llegarían desordenados. null vuelve al de por defecto.
+     */
+    public void setDispatchExecutor(Executor executor) {
+        this.dispatchExecutor = executor != null ? executor : defaultDispatchExecutor;
+    }
+
     /**
      * Establece las credenciales para autenticación.
      */
@@ -90,13 +288,111 @@ public class YarvisWebSocketClient {
         return productionMode;
     }
 
+    /**
+     * Usa el event loop NIO compartido en lugar de un socket bloqueante por conexión.
+     * Se aplica en la siguiente conexión.
+     */
+    public void setNioTransport(boolean enabled) {
+        this.nioTransport = enabled;
+    }
+
+    /**
+     * Fuente de cambios de conectividad. Sin red las reconexiones se suspenden y, al
+     * volver, se reconecta sin esperar al backoff. Debe llamarse antes de connect().
+     */
+    public void setConnectivityMonitor(ConnectivityMonitor monitor) {
+        this.connectivityMonitor = monitor;
+    }
+
+    /**
+     * Guarda los comandos de voz, chats y notificaciones en {@code file} hasta que el
+     * servidor confirme su recepción, para reenviarlos tras reconectar aunque el proceso
+     * haya muerto entretanto. Debe llamarse antes de connect().
+     */
+    public void setOutboxFile(File file) {
+        if (outbox != null) {
+            outbox.close();
+            outbox = null;
+        }
+        try {
+            outbox = Outbox.open(file);
+        } catch (IOException e) {
+            NetLog.e(TAG, "Cannot open outbox " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mensajes guardados en el outbox pendientes de ack.
+     */
+    public int getPendingOutboxCount() {
+        return outbox != null ? outbox.size() : 0;
+    }
+
+    /**
+     * Timeout por defecto de las peticiones async (sendVoiceCommandAsync, sendChatMessageAsync).
+     */
+    public void setRequestTimeout(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("timeoutMs must be > 0");
+        }
+        this.requestTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Máximo de peticiones async esperando respuesta a la vez. Por encima se rechazan
+     * con {@link RequestException}.
+     */
+    public void setMaxInFlightRequests(int maxInFlight) {
+        pendingRequests.setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Intervalo de inactividad tras el que se envía un heartbeat en la red actual,
+     * aprendido por tipo de red.
+     */
+    public long getHeartbeatIntervalMs() {
+        return heartbeat.getInterval(currentNetworkType());
+    }
+
+    /**
+     * Heartbeats que se quedaron sin pong a tiempo, en todas las redes.
+     */
+    public long getMissedPongCount() {
+        return heartbeat.getTotalMissedPongs();
+    }
+
+    /**
+     * Heartbeats que no hizo falta enviar porque se estaba recibiendo tráfico.
+     */
+    public long getSkippedPingCount() {
+        return skippedPings.get();
+    }
+
+    /**
+     * Peticiones async enviadas que aún esperan su respuesta.
+     */
+    public int getInFlightRequestCount() {
+        return pendingRequests.size();
+    }
+
     /**
      * Conecta al servidor WebSocket.
      */
     public void connect() {
         shouldBeConnected = true;
         isAuthenticated = false;
-        doConnect();
+        backoff.reset();
+
+        if (connectivityMonitor != null) {
+            connectivityMonitor.start(networkListener);
+            if (!connectivityMonitor.isNetworkAvailable()) {
+                NetLog.d(TAG, "No network, waiting before connecting");
+                waitingForNetwork = true;
+                return;
+            }
+        }
+        startEndpointRecheck();
+        connectToFastestEndpoint(true);
     }
 
     /**
@@ -105,13 +401,30 @@ public class YarvisWebSocketClient {
     public void disconnect() {
         shouldBeConnected = false;
         isAuthenticated = false;
+        waitingForNetwork = false;
+        if (connectivityMonitor != null) {
+            connectivityMonitor.stop();
+        }
         stopPingTask();
-        stopReconnectTask();
+        runOnScheduler(this::stopReconnectTask);
+        stopEndpointRecheck();
         activeSessionId = null;
+        resumeToken = null;
+        lastSeq = 0;
+
+        WebSocketTransport current = connection;
+        connection = null;
+        if (current != null) {
+            current.close();
+        }
+        inbound.clear();
+    }
 
-        if (connection != null) {
-            connection.close();
-            connection = null;
+    private void sendResume() {
+        WebSocketTransport current = connection;
+        if (current != null && current.isConnected()) {
+            current.send(new WebSocketMessage.Resume(resumeToken, lastSeq).toJson());
+            NetLog.d(TAG, "Sent resume request (last seq " + lastSeq + ")");
         }
     }
 
@@ -119,7 +432,8 @@ public class YarvisWebSocketClient {
      * Envía la autenticación al servidor.
      */
     private void sendAuthentication() {
-        if (connection != null && connection.isConnected() && password != null) {
+        WebSocketTransport current = connection;
+        if (current != null && current.isConnected() && password != null) {
             try {
                 JSONObject json = new JSONObject();
                 json.put("type", "auth");
@@ -127,10 +441,10 @@ public class YarvisWebSocketClient {
                 if (agentName != null && !agentName.isEmpty()) {
                     json.put("agentName", agentName);
                 }
-                connection.send(json.toString());
-                Log.d(TAG, "Sent authentication request");
+                current.send(json.toString());
+                NetLog.d(TAG, "Sent authentication request");
             } catch (JSONException e) {
-                Log.e(TAG, "Error creating auth message", e);
+                NetLog.e(TAG, "Error creating auth message", e);
             }
         }
     }
@@ -139,16 +453,17 @@ public class YarvisWebSocketClient {
      * Solicita cambio de contraseña.
      */
     public void changePassword(String currentPassword, String newPassword) {
-        if (connection != null && connection.isConnected() && isAuthenticated) {
+        WebSocketTransport current = connection;
+        if (current != null && current.isConnected() && isAuthenticated) {
             try {
                 JSONObject json = new JSONObject();
                 json.put("type", "change_password");
                 json.put("currentPassword", currentPassword);
                 json.put("newPassword", newPassword);
-                connection.send(json.toString());
-                Log.d(TAG, "Sent change password request");
+                current.send(json.toString());
+                NetLog.d(TAG, "Sent change password request");
             } catch (JSONException e) {
-                Log.e(TAG, "Error creating change password message", e);
+                NetLog.e(TAG, "Error creating change password message", e);
                 notifyPasswordChangeResult(false, "Error al crear solicitud");
             }
         } else {
@@ -160,58 +475,214 @@ public class YarvisWebSocketClient {
      * Envía un comando de voz al backend.
      * Incluye el sessionId si hay una conversación activa.
      */
-    public void sendVoiceCommand(String text) {
-        if (!isAuthenticated) {
-            Log.w(TAG, "Cannot send voice command - not authenticated");
-            notifyError("No autenticado con el servidor");
-            return;
-        }
-        if (connection != null && connection.isConnected()) {
-            WebSocketMessage.VoiceCommand message = new WebSocketMessage.VoiceCommand(text, activeSessionId, productionMode);
-            connection.send(message.toJson());
+    public SendResult sendVoiceCommand(String text) {
+        WebSocketMessage.VoiceCommand message = new WebSocketMessage.VoiceCommand(text, activeSessionId, productionMode);
+        // Interactivo: no espera detrás de notificaciones ya encoladas
+        SendResult result = sendDurable(message.messageId, message.toJson(), VOICE_COMMAND_TTL_MS,
+                WebSocketTransport.Priority.INTERACTIVE, error -> {
+                    NetLog.w(TAG, "Cannot send voice command - " + error);
+                    notifyError(error);
+                });
+        if (result != SendResult.FAILED) {
             String envLabel = productionMode ? "PROD" : "DEV";
-            Log.d(TAG, "Sent voice command [" + envLabel + "]: " + text + (activeSessionId != null ? " [session: " + activeSessionId + "]" : ""));
-        } else {
-            Log.w(TAG, "Cannot send voice command - not connected");
-            notifyError("No hay conexión con el servidor");
+            NetLog.d(TAG, (result == SendResult.SENT ? "Sent" : "Queued") + " voice command [" + envLabel + "]: " + text + (activeSessionId != null ? " [session: " + activeSessionId + "]" : ""));
         }
+        return result;
     }
 
     /**
      * Envía un mensaje de chat (texto escrito) al backend.
      * Incluye el sessionId si hay una conversación activa.
      */
-    public void sendChatMessage(String text) {
-        if (!isAuthenticated) {
-            Log.w(TAG, "Cannot send chat message - not authenticated");
-            notifyError("No autenticado con el servidor");
+    public SendResult sendChatMessage(String text) {
+        WebSocketMessage.ChatMessage message = new WebSocketMessage.ChatMessage(text, activeSessionId, productionMode);
+        SendResult result = sendDurable(message.messageId, message.toJson(), CHAT_MESSAGE_TTL_MS,
+                WebSocketTransport.Priority.INTERACTIVE, error -> {
+                    NetLog.w(TAG, "Cannot send chat message - " + error);
+                    notifyError(error);
+                });
+        if (result != SendResult.FAILED) {
+            String envLabel = productionMode ? "PROD" : "DEV";
+            NetLog.d(TAG, (result == SendResult.SENT ? "Sent" : "Queued") + " chat message [" + envLabel + "]: " + text + (activeSessionId != null ? " [session: " + activeSessionId + "]" : ""));
+        }
+        return result;
+    }
+
+    /**
+     * Envía un comando de voz y devuelve su respuesta, con el timeout por defecto.
+     *
+     * @see #sendChatMessageAsync(String, long)
+     */
+    public CompletableFuture<WebSocketMessage.Response> sendVoiceCommandAsync(String text) {
+        return sendVoiceCommandAsync(text, requestTimeoutMs);
+    }
+
+    /**
+     * Envía un comando de voz y devuelve la respuesta que trae su messageId en replyTo.
+     * Si el servidor contesta {@code no_response} (el agente lo procesó sin nada que decir),
+     * el future se completa con null.
+     *
+     * {@code timeoutMs} cuenta desde la llamada, también si el comando espera en el outbox
+     * a que vuelva la conexión; al vencer, el future falla con {@link TimeoutException}.
+     * Falla en el acto con {@link RequestException} si ya hay demasiadas peticiones en curso,
+     * y también con ella si el comando no se pudo enviar ni guardar o si el servidor responde
+     * con un error. Tras un timeout o cancel() el comando se retira del outbox.
+     */
+    public CompletableFuture<WebSocketMessage.Response> sendVoiceCommandAsync(String text, long timeoutMs) {
+        WebSocketMessage.VoiceCommand message = new WebSocketMessage.VoiceCommand(text, activeSessionId, productionMode);
+        NetLog.d(TAG, "Sending voice command " + message.messageId + ": " + text);
+        return sendAsync(message.messageId, message.toJson(), VOICE_COMMAND_TTL_MS, timeoutMs);
+    }
+
+    /**
+     * Envía un mensaje de chat y devuelve su respuesta, con el timeout por defecto.
+     *
+     * @see #sendChatMessageAsync(String, long)
+     */
+    public CompletableFuture<WebSocketMessage.Response> sendChatMessageAsync(String text) {
+        return sendChatMessageAsync(text, requestTimeoutMs);
+    }
+
+    /**
+     * Envía un mensaje de chat y devuelve la respuesta del servidor a ese mensaje
+     * (la que trae su messageId en replyTo), o null si el agente lo procesó sin contestar.
+     * La respuesta se sigue entregando también a {@link ConnectionListener#onResponse}.
+     *
+     * El future falla con {@link RequestException} si el servidor responde con un error,
+     * si no se pudo enviar ni guardar o si ya hay demasiadas peticiones en curso, y con
+     * {@link TimeoutException} si no llega respuesta en {@code timeoutMs}.
+     * cancel() deja de esperar. Si falla por timeout o se cancela, el mensaje sale del
+     * outbox y no se reenvía al reconectar. Se completa en el executor de despacho, salvo el
+     * timeout, que llega en el hilo del planificador.
+     */
+    public CompletableFuture<WebSocketMessage.Response> sendChatMessageAsync(String text, long timeoutMs) {
+        WebSocketMessage.ChatMessage message = new WebSocketMessage.ChatMessage(text, activeSessionId, productionMode);
+        NetLog.d(TAG, "Sending chat message " + message.messageId + ": " + text);
+        return sendAsync(message.messageId, message.toJson(), CHAT_MESSAGE_TTL_MS, timeoutMs);
+    }
+
+    private CompletableFuture<WebSocketMessage.Response> sendAsync(String messageId, String json, long ttlMs,
+                                                                   long timeoutMs) {
+        CompletableFuture<WebSocketMessage.Response> future = pendingRequests.register(messageId, timeoutMs);
+        if (future == null) {
+            NetLog.w(TAG, "Too many requests in flight, rejecting " + messageId);
+            CompletableFuture<WebSocketMessage.Response> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RequestException("Demasiadas peticiones en curso"));
+            return rejected;
+        }
+
+        future.whenComplete((response, error) -> {
+            if (error instanceof CancellationException || error instanceof TimeoutException) {
+                // El llamante ya lo dio por fallido: que no se reenvíe al reconectar
+                acknowledge(messageId);
+            }
+        });
+
+        // Guardado en el outbox, el future sigue esperando: la respuesta llegará tras reconectar
+        sendDurable(messageId, json, ttlMs, WebSocketTransport.Priority.INTERACTIVE,
+                error -> pendingRequests.fail(messageId, new RequestException(error)));
+        return future;
+    }
+
+    /**
+     * Envía una notificación al backend, con prioridad baja. Las que llegan seguidas se
+     * agrupan en un solo {@code notification_batch} (ver {@link #setNotificationBatching})
+     * y cada lote está sujeto al límite de ritmo (ver {@link #setNotificationRateLimit}).
+     */
+    public void sendNotification(String app, String title, String text) {
+        // Con la cola de salida saturada se descartan: son las menos prioritarias
+        WebSocketTransport current = connection;
+        if (current != null && current.isConnected() && !current.isWritable()) {
+            long dropped = droppedNotifications.incrementAndGet();
+            NetLog.w(TAG, "Send queue above high watermark, notification dropped (" + dropped + " total)");
             return;
         }
-        if (connection != null && connection.isConnected()) {
-            WebSocketMessage.ChatMessage message = new WebSocketMessage.ChatMessage(text, activeSessionId, productionMode);
-            connection.send(message.toJson());
-            String envLabel = productionMode ? "PROD" : "DEV";
-            Log.d(TAG, "Sent chat message [" + envLabel + "]: " + text + (activeSessionId != null ? " [session: " + activeSessionId + "]" : ""));
+        WebSocketMessage.NotificationMessage message =
+                new WebSocketMessage.NotificationMessage(app, title, text, productionMode);
+        notificationBatcher.add(message);
+    }
+
+    private void onNotificationBatch(WebSocketMessage.NotificationBatch batch) {
+        if (notificationThrottle.tryAcquire(batch)) {
+            sendNotificationBatch(batch);
+        }
+    }
+
+    private void sendNotificationBatch(WebSocketMessage.NotificationBatch batch) {
+        WebSocketMessage.NotificationBatch.Item first = batch.notifications.get(0);
+        if (batch.notifications.size() == 1 && first.count == 1) {
+            // Una sola: como notificación normal
+            sendNotificationNow(new WebSocketMessage.NotificationMessage(
+                    first.app, first.title, first.text, batch.production));
+            return;
+        }
+        SendResult result = sendDurable(batch.messageId, batch.toJson(), NOTIFICATION_TTL_MS,
+                WebSocketTransport.Priority.BULK,
+                error -> NetLog.w(TAG, "Cannot send notification batch - " + error));
+        if (result == SendResult.SENT) {
+            NetLog.d(TAG, "Sent notification batch with " + batch.notifications.size() + " app/title pairs");
+        }
+    }
+
+    private void sendNotificationNow(WebSocketMessage.NotificationMessage message) {
+        SendResult result = sendDurable(message.messageId, message.toJson(), NOTIFICATION_TTL_MS,
+                WebSocketTransport.Priority.BULK, error -> NetLog.w(TAG, "Cannot send notification - " + error));
+        if (result == SendResult.SENT) {
+            String envLabel = message.production ? "PROD" : "DEV";
+            NetLog.d(TAG, "Sent notification [" + envLabel + "]: " + message.app + " - " + message.title);
+        }
+    }
+
+    /**
+     * Envía un mensaje con messageId. Con outbox, antes de enviarlo se guarda hasta
+     * recibir su ack; si no hay conexión autenticada queda pendiente y se reenvía tras
+     * el próximo auth_response.
+     *
+     * @param onFailure recibe el error para el usuario si no se pudo enviar ni guardar
+     */
+    private SendResult sendDurable(String messageId, String json, long ttlMs,
+                                   WebSocketTransport.Priority priority, Consumer<String> onFailure) {
+        boolean stored = false;
+        if (outbox != null) {
+            try {
+                outbox.append(messageId, json, ttlMs);
+                stored = true;
+            } catch (IOException e) {
+                NetLog.e(TAG, "Cannot write outbox: " + e.getMessage());
+            }
+        }
+
+        String error;
+        WebSocketTransport current = connection;
+        if (!isAuthenticated) {
+            error = "No autenticado con el servidor";
+        } else if (current == null || !current.isConnected()) {
+            error = "No hay conexión con el servidor";
+        } else if (!current.send(json, priority)) {
+            error = "Cola de envío llena";
         } else {
-            Log.w(TAG, "Cannot send chat message - not connected");
-            notifyError("No hay conexión con el servidor");
+            return SendResult.SENT;
+        }
+
+        if (stored) {
+            NetLog.d(TAG, error + ", message " + messageId + " kept in outbox");
+            return SendResult.QUEUED;
         }
+        onFailure.accept(error);
+        return SendResult.FAILED;
     }
 
     /**
-     * Envía una notificación al backend.
+     * Envía datos binarios (p. ej. fragmentos de audio) sin codificarlos en JSON.
      */
-    public void sendNotification(String app, String title, String text) {
+    public void sendBinary(ByteBuffer data) {
         if (!isAuthenticated) {
-            Log.w(TAG, "Cannot send notification - not authenticated");
+            NetLog.w(TAG, "Cannot send binary data - not authenticated");
             return;
         }
-        if (connection != null && connection.isConnected()) {
-            WebSocketMessage.NotificationMessage message =
-                    new WebSocketMessage.NotificationMessage(app, title, text, productionMode);
-            connection.send(message.toJson());
-            String envLabel = productionMode ? "PROD" : "DEV";
-            Log.d(TAG, "Sent notification [" + envLabel + "]: " + app + " - " + title);
+        WebSocketTransport current = connection;
+        if (current != null && current.isConnected()) {
+            current.sendBinary(data);
         }
     }
 
@@ -219,11 +690,12 @@ public class YarvisWebSocketClient {
      * Termina la conversación activa.
      */
     public void endConversation(String reason) {
-        if (activeSessionId != null && connection != null && connection.isConnected() && isAuthenticated) {
+        WebSocketTransport current = connection;
+        if (activeSessionId != null && current != null && current.isConnected() && isAuthenticated) {
             WebSocketMessage.EndConversation message =
                     new WebSocketMessage.EndConversation(activeSessionId, reason);
-            connection.send(message.toJson());
-            Log.d(TAG, "Ending conversation: " + activeSessionId + " reason: " + reason);
+            current.send(message.toJson());
+            NetLog.d(TAG, "Ending conversation: " + activeSessionId + " reason: " + reason);
             activeSessionId = null;
         }
     }
@@ -232,7 +704,129 @@ public class YarvisWebSocketClient {
      * Verifica si está conectado.
      */
     public boolean isConnected() {
-        return connection != null && connection.isConnected();
+        WebSocketTransport current = connection;
+        return current != null && current.isConnected();
+    }
+
+    /**
+     * Bytes pendientes en la cola de salida de la conexión actual.
+     */
+    public long getQueuedBytes() {
+        WebSocketTransport current = connection;
+        return current != null ? current.getQueuedBytes() : 0;
+    }
+
+    /**
+     * RTT de la conexión actual medido con ping/pong de protocolo, o null si no hay conexión.
+     */
+    public RttHistogram getRttHistogram() {
+        WebSocketTransport current = connection;
+        return current != null ? current.getRttHistogram() : null;
+    }
+
+    /**
+     * Límites de la cola de mensajes entrantes. Con {@code capacity} mensajes pendientes de
+     * despachar se deja de leer del socket, y se reanuda al bajar a {@code resumeThreshold}.
+     */
+    public void setInboundQueueLimits(int capacity, int resumeThreshold) {
+        inbound.setLimits(capacity, resumeThreshold);
+    }
+
+    /**
+     * Mensajes recibidos que aún no se han despachado a los listeners.
+     */
+    public int getInboundQueueDepth() {
+        return inbound.getDepth();
+    }
+
+    /**
+     * Máximo de mensajes recibidos pendientes de despachar que se ha alcanzado.
+     */
+    public int getInboundQueueMaxDepth() {
+        return inbound.getMaxDepth();
+    }
+
+    /**
+     * Veces que se ha pausado la lectura del socket por la cola de entrada llena.
+     */
+    public long getReadPauseCount() {
+        return inbound.getPauseCount();
+    }
+
+    /**
+     * Tiempo total con la lectura del socket pausada, incluida la pausa en curso.
+     */
+    public long getReadPausedMillis() {
+        return inbound.getPausedMillis();
+    }
+
+    /**
+     * Notificaciones descartadas por saturación de la cola de salida.
+     */
+    public long getDroppedNotificationCount() {
+        return droppedNotifications.get();
+    }
+
+    /**
+     * Límite de ritmo del reenvío de notificaciones: ráfagas de hasta {@code burst} lotes
+     * y, a la larga, {@code perSecond} lotes por segundo. Por defecto 5 y 0,5/s.
+     */
+    public void setNotificationRateLimit(double perSecond, int burst) {
+        notificationThrottle.setRate(perSecond, burst);
+    }
+
+    /**
+     * Qué hacer con las notificaciones por encima del límite de ritmo. Por defecto
+     * {@link NotificationOverflow#MERGE}.
+     */
+    public void setNotificationOverflow(NotificationOverflow policy) {
+        notificationThrottle.setPolicy(policy);
+    }
+
+    /**
+     * Ventana de agrupación de notificaciones: las que llegan en {@code windowMs} desde la
+     * primera se envían juntas, o antes si ya hay {@code maxItems} pares app/título
+     * distintos. Con 0 ms cada una sale sola. Por defecto 2 s y 20.
+     */
+    public void setNotificationBatching(long windowMs, int maxItems) {
+        notificationBatcher.setLimits(windowMs, maxItems);
+    }
+
+    /**
+     * Pares app/título esperando a que se cierre la ventana de agrupación.
+     */
+    public int getBatchedNotificationCount() {
+        return notificationBatcher.getPendingCount();
+    }
+
+    /**
+     * Notificaciones descartadas por el límite de ritmo.
+     */
+    public long getRateLimitedNotificationCount() {
+        return notificationThrottle.getDroppedCount();
+    }
+
+    /**
+     * Notificaciones retenidas fusionadas con otra retenida de la misma app y título.
+     */
+    public long getMergedNotificationCount() {
+        return notificationThrottle.getMergedCount();
+    }
+
+    /**
+     * Pares app/título retenidos esperando a que el límite de ritmo los deje pasar.
+     */
+    public int getHeldNotificationCount() {
+        return notificationThrottle.getHeldCount();
+    }
+
+    /**
+     * Espera en la cola de salida de la conexión actual de los mensajes de
+     * {@code priority}, o null si no hay conexión.
+     */
+    public LatencyHistogram getQueueWaitHistogram(WebSocketTransport.Priority priority) {
+        WebSocketTransport current = connection;
+        return current != null ? current.getQueueWaitHistogram(priority) : null;
     }
 
     /**
@@ -256,148 +850,598 @@ public class YarvisWebSocketClient {
         return activeSessionId;
     }
 
+    /**
+     * Conecta al endpoint que antes complete el handshake, quedándose con esa conexión de
+     * la medición. Con uno solo, o con {@code measure} false, va directamente al actual,
+     * que ya refleja la última medición y las conmutaciones por fallo: así los reintentos
+     * no abren una conexión de más a cada endpoint.
+     */
+    private void connectToFastestEndpoint(boolean measure) {
+        if (endpoints.size() < 2 || !measure || !probingEndpoints.compareAndSet(false, true)) {
+            doConnect();
+            return;
+        }
+        probedNetworkType = currentNetworkType();
+        endpoints.probe(transportFactory, scheduler, fastest -> {
+            if (!shouldBeConnected || isConnected()) return;
+            if (fastest != null) {
+                endpoints.select(fastest.url());
+                if (adoptProbe(fastest)) return;
+            }
+            doConnect();
+        }, () -> probingEndpoints.set(false));
+    }
+
+    /**
+     * Usa como conexión la que abrió la medición, sin repetir el handshake.
+     *
+     * @return false si ya se cerró
+     */
+    private boolean adoptProbe(EndpointSelector.Winner winner) {
+        String serverUrl = winner.url();
+        WebSocketTransport.Callback callback =
+                newConnectionCallback(connectGeneration.incrementAndGet(), serverUrl);
+        WebSocketTransport transport = winner.adopt(callback);
+        if (transport == null) return false;
+        connection = transport;
+        inbound.reapplyPause();
+        NetLog.d(TAG, "Using probe connection to " + serverUrl);
+        callback.onOpen();
+        return true;
+    }
+
     private void doConnect() {
-        if (connection != null && connection.isConnected()) {
+        if (isConnected()) {
             return;
         }
 
+        String serverUrl = endpoints.current();
+        int generation = connectGeneration.incrementAndGet();
         try {
             URI uri = new URI(serverUrl);
-            connection = new WebSocketConnection(uri, new WebSocketConnection.Callback() {
-                @Override
-                public void onOpen() {
-                    Log.i(TAG, "Connected to " + serverUrl);
-                    // Enviar autenticación inmediatamente después de conectar
+            WebSocketTransport transport = transportFactory.create(uri, newConnectionCallback(generation, serverUrl));
+            connection = transport;
+            // Si la cola de entrada sigue llena, el transporte nuevo empieza pausado
+            inbound.reapplyPause();
+            transport.connect();
+            NetLog.d(TAG, "Connecting to " + serverUrl);
+
+        } catch (Exception e) {
+            NetLog.e(TAG, "Failed to create connection: " + e.getMessage());
+            if (endpoints.onConnectFailed()) {
+                NetLog.w(TAG, "Switching endpoint to " + endpoints.current());
+            }
+            scheduleReconnect();
+        }
+    }
+
+    private WebSocketTransport.Callback newConnectionCallback(int generation, String serverUrl) {
+        return new WebSocketTransport.Callback() {
+            private boolean opened;
+            private boolean failureCounted;
+
+            private boolean isStale() {
+                return generation != connectGeneration.get();
+            }
+
+            // Un intento que no llega a abrir cuenta para conmutar de endpoint
+            private void countFailure() {
+                if (opened || failureCounted) return;
+                failureCounted = true;
+                if (endpoints.onConnectFailed()) {
+                    NetLog.w(TAG, "Switching endpoint to " + endpoints.current());
+                }
+            }
+
+            @Override
+            public void onOpen() {
+                if (isStale()) return;
+                opened = true;
+                endpoints.onConnected();
+                WebSocketTransport current = connection;
+                NetLog.i(TAG, "Connected to " + serverUrl
+                        + (current != null ? " (" + current.getConnectTimings() + ")" : ""));
+                // Reanudar la conexión anterior si se puede; si no, autenticar
+                if (resumeToken != null) {
+                    sendResume();
+                } else {
                     sendAuthentication();
                 }
+            }
 
-                @Override
-                public void onMessage(String message) {
-                    handleServerMessage(message);
+            @Override
+            public void onMessage(String message) {
+                if (isStale()) return;
+                lastReceivedNanos = System.nanoTime();
+                if (inbound.offer(message) && dispatchScheduled.compareAndSet(false, true)) {
+                    dispatch(YarvisWebSocketClient.this::drainInbound);
                 }
+            }
 
-                @Override
-                public void onClose(int code, String reason) {
-                    Log.i(TAG, "Disconnected: " + reason);
-                    stopPingTask();
+            @Override
+            public void onClose(int code, String reason) {
+                if (isStale()) return;
+                NetLog.i(TAG, "Disconnected: " + reason);
+                countFailure();
+                stopPingTask();
+                // Lo recibido sin despachar es de esta conexión: con token la reanudación
+                // lo vuelve a pedir, y sin él se empieza de cero
+                inbound.clear();
+                // Con token el servidor conserva la sesión hasta que se reanude
+                if (resumeToken == null) {
                     activeSessionId = null;
-                    isAuthenticated = false;
-                    notifyDisconnected();
-                    scheduleReconnect();
                 }
+                isAuthenticated = false;
+                notifyDisconnected();
+                scheduleReconnect();
+            }
 
-                @Override
-                public void onError(Exception ex) {
-                    Log.e(TAG, "WebSocket error: " + ex.getMessage());
-                    notifyError("Error de conexión: " + ex.getMessage());
-                    scheduleReconnect();
+            @Override
+            public void onError(Exception ex) {
+                if (isStale()) return;
+                NetLog.e(TAG, "WebSocket error: " + ex.getMessage());
+                countFailure();
+                notifyError("Error de conexión: " + ex.getMessage());
+                scheduleReconnect();
+            }
+
+            @Override
+            public void onWritabilityChanged(boolean writable) {
+                NetLog.d(TAG, writable ? "Send queue drained" : "Send queue above high watermark");
+            }
+
+            @Override
+            public void onPong(long rttNanos) {
+                if (isStale()) return;
+                lastReceivedNanos = System.nanoTime();
+                if (!scheduler.isShutdown()) {
+                    scheduler.execute(YarvisWebSocketClient.this::onHeartbeatPong);
                 }
-            });
+            }
+};
+    }
 
-            connection.connect();
-            Log.d(TAG, "Connecting to " + serverUrl);
+    private void startEndpointRecheck() {
+        if (endpoints.size() < 2 || endpointRecheckTask != null) return;
+        endpointRecheckTask = scheduler.scheduleWithFixedDelay(this::recheckEndpoints,
+                endpointRecheckIntervalMs, endpointRecheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to create connection: " + e.getMessage());
-            scheduleReconnect();
+    private void stopEndpointRecheck() {
+        if (endpointRecheckTask != null) {
+            endpointRecheckTask.cancel(false);
+            endpointRecheckTask = null;
         }
     }
 
-    private void handleServerMessage(String jsonString) {
-        // Verificar si es respuesta de autenticación
+    /**
+     * Vuelve a medir los endpoints estando conectado y pasa al más rápido si lo es
+     * claramente. La conexión nueva reanuda la anterior con el token, sin perder nada.
+     */
+    private void recheckEndpoints() {
+        if (!shouldBeConnected || !isAuthenticated || endpoints.size() < 2) return;
+        if (!probingEndpoints.compareAndSet(false, true)) return;
+        probedNetworkType = currentNetworkType();
+        endpoints.probe(transportFactory, scheduler, null, () -> {
+            probingEndpoints.set(false);
+            String fastest = endpoints.fastest();
+            if (fastest != null && shouldBeConnected && isAuthenticated && endpoints.isMuchFaster(fastest)) {
+                switchEndpoint(fastest);
+            }
+        });
+    }
+
+    private void switchEndpoint(String url) {
+        NetLog.i(TAG, "Switching from " + endpoints.current() + " to faster endpoint " + url);
+        endpoints.select(url);
+        WebSocketTransport previous = connection;
+        // Antes de cerrar: el onClose del transporte anterior ya no debe reconectar
+        connectGeneration.incrementAndGet();
+        connection = null;
+        stopPingTask();
+        isAuthenticated = false;
+        if (previous != null) {
+            previous.close();
+        }
+        // La conexión nueva reanuda desde lastSeq y el servidor repite lo no despachado
+        inbound.clear();
+        doConnect();
+    }
+
+    private WebSocketTransport createSocketTransport(URI uri, WebSocketTransport.Callback callback) {
+        WebSocketConnection socketConnection = new WebSocketConnection(uri, callback, nioTransport);
+        // permessage-deflate: nuestro JSON es muy repetitivo y en datos móviles se nota
+        socketConnection.setCompression(true, PerMessageDeflate.DEFAULT_THRESHOLD);
+        // El upgrade WebSocket va sobre HTTP/1.1; así el ingress no negocia h2
+        socketConnection.setAlpnProtocols("http/1.1");
+        socketConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        return socketConnection;
+    }
+
+    /**
+     * Despacha los mensajes recibidos en el executor de despacho: una ráfaga se procesa
+     * en una sola tarea, por lotes de {@link #MAX_DISPATCH_BATCH} para no acaparar el
+     * executor si es compartido.
+     */
+    private void drainInbound() {
+        dispatchThread = Thread.currentThread();
         try {
-            JSONObject json = new JSONObject(jsonString);
-            String type = json.optString("type", "");
-            
-            if ("auth_response".equals(type)) {
-                boolean success = json.optBoolean("success", false);
-                String message = json.optString("message", "");
-                isAuthenticated = success;
-                if (success) {
-                    Log.i(TAG, "Authentication successful");
-                    startPingTask();
-                    notifyConnected();
-                } else {
-                    Log.w(TAG, "Authentication failed: " + message);
-                }
-                notifyAuthResult(success, message);
-                return;
+            String message;
+            for (int i = 0; i < MAX_DISPATCH_BATCH && (message = inbound.poll()) != null; i++) {
+                handleServerMessage(message);
             }
-            
-            if ("change_password_response".equals(type)) {
-                boolean success = json.optBoolean("success", false);
-                String message = json.optString("message", "");
-                notifyPasswordChangeResult(success, message);
+            acknowledgeSeq();
+        } finally {
+            dispatchThread = null;
+            dispatchScheduled.set(false);
+        }
+        // Quedan mensajes o llegaron justo al soltar el turno
+        if (!inbound.isEmpty() && dispatchScheduled.compareAndSet(false, true)) {
+            dispatch(this::drainInbound);
+        }
+    }
+
+    private void onReadPausedChanged(boolean paused) {
+        WebSocketTransport current = connection;
+        if (current == null) return;
+        if (paused) {
+            NetLog.w(TAG, "Inbound queue full (" + inbound.getDepth() + " messages), pausing reads");
+            current.pauseReading();
+        } else {
+            NetLog.d(TAG, "Inbound queue drained, resuming reads");
+            current.resumeReading();
+        }
+    }
+
+    private void handleServerMessage(String jsonString) {
+        JSONObject json;
+        try {
+            json = new JSONObject(jsonString);
+        } catch (JSONException e) {
+            NetLog.e(TAG, "Error parsing server message", e);
+            notifyError("Error parsing message: " + e.getMessage());
+            return;
+        }
+
+        // Tras una reanudación pueden repetirse mensajes ya procesados
+        long seq = json.optLong("seq", 0);
+        if (seq > 0) {
+            if (seq <= lastSeq) {
+                NetLog.d(TAG, "Skipping already processed message seq " + seq);
                 return;
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error parsing auth response", e);
+            lastSeq = seq;
         }
 
-        Object message = WebSocketMessage.parseServerMessage(jsonString);
+        if (!serverMessages.dispatch(json)) {
+            NetLog.d(TAG, "Unhandled server message type: " + json.optString("type", ""));
+        }
+    }
 
-        if (message instanceof WebSocketMessage.Response) {
-            WebSocketMessage.Response response = (WebSocketMessage.Response) message;
-            notifyResponse(response);
+    private void registerServerMessageHandlers() {
+        serverMessages.register("auth_response", this::onAuthResponse);
+        serverMessages.register("resume_response", this::onResumeResponse);
+        serverMessages.register("ack", json -> acknowledge(json.optString("messageId", "")));
+        // Procesado, pero el agente decidió no contestar
+        serverMessages.register("no_response", json -> pendingRequests.complete(json.optString("replyTo", ""), null));
+        serverMessages.register("change_password_response", json ->
+                notifyPasswordChangeResult(json.optBoolean("success", false), json.optString("message", "")));
+        serverMessages.register("response", WebSocketMessage.Response::fromJson, this::onServerResponse);
+        serverMessages.register("response_chunk", WebSocketMessage.ResponseChunk::fromJson, this::notifyResponseChunk);
+        serverMessages.register("response_end", WebSocketMessage.Response::fromJson, this::onServerResponseEnd);
+        serverMessages.register("start_conversation", WebSocketMessage.StartConversation::fromJson,
+                this::onConversationStarted);
+        serverMessages.register("end_conversation", WebSocketMessage.EndConversationResponse::fromJson,
+                this::onConversationEnded);
+        serverMessages.register("action", WebSocketMessage.Action::fromJson, action ->
+                notifyAction(action.action, action.params != null ? action.params.toString() : null));
+        serverMessages.register("error", WebSocketMessage.Error::fromJson, this::onServerError);
+    }
 
-        } else if (message instanceof WebSocketMessage.StartConversation) {
-            WebSocketMessage.StartConversation start = (WebSocketMessage.StartConversation) message;
-            activeSessionId = start.sessionId;
-            Log.i(TAG, "Conversation started: " + start.sessionId);
-            notifyConversationStarted(start.sessionId, start.greeting, start.show);
+    private void onAuthResponse(JSONObject json) {
+        boolean success = json.optBoolean("success", false);
+        String message = json.optString("message", "");
+        isAuthenticated = success;
+        if (success) {
+            NetLog.i(TAG, "Authentication successful");
+            // Conexión nueva en el servidor: la numeración empieza de cero
+            resumeToken = json.optString("resumeToken", null);
+            lastSeq = 0;
+            ackedSeq = 0;
+            activeSessionId = null;
+            onAuthenticated();
+        } else {
+            NetLog.w(TAG, "Authentication failed: " + message);
+        }
+        notifyAuthResult(success, message);
+    }
 
-        } else if (message instanceof WebSocketMessage.EndConversationResponse) {
-            WebSocketMessage.EndConversationResponse end = (WebSocketMessage.EndConversationResponse) message;
-            Log.i(TAG, "Conversation ended: " + end.sessionId + " reason: " + end.reason);
-            if (end.sessionId.equals(activeSessionId)) {
-                activeSessionId = null;
-            }
-            notifyConversationEnded(end.sessionId, end.farewell, end.reason);
+    private void onResumeResponse(JSONObject json) {
+        if (json.optBoolean("success", false)) {
+            resumeToken = json.optString("resumeToken", null);
+            isAuthenticated = true;
+            NetLog.i(TAG, "Connection resumed (server at seq " + json.optLong("lastSeq", 0)
+                    + ", last seen " + lastSeq + ")");
+            onAuthenticated();
+            notifyAuthResult(true, "Conexión reanudada");
+        } else {
+            // Caducó o se perdieron mensajes: se empieza de cero con la contraseña
+            NetLog.w(TAG, "Resume rejected: " + json.optString("message", ""));
+            resumeToken = null;
+            lastSeq = 0;
+            ackedSeq = 0;
+            activeSessionId = null;
+            sendAuthentication();
+        }
+    }
+
+    private void onServerResponse(WebSocketMessage.Response response) {
+        notifyResponse(response);
+        if (response.replyTo != null) {
+            pendingRequests.complete(response.replyTo, response);
+        }
+    }
+
+    private void onServerResponseEnd(WebSocketMessage.Response response) {
+        notifyResponseEnd(response);
+        if (response.replyTo != null) {
+            pendingRequests.complete(response.replyTo, response);
+        }
+    }
 
-        } else if (message instanceof WebSocketMessage.Action) {
-            WebSocketMessage.Action action = (WebSocketMessage.Action) message;
-            String params = action.params != null ? action.params.toString() : null;
-            notifyAction(action.action, params);
+    private void onConversationStarted(WebSocketMessage.StartConversation start) {
+        activeSessionId = start.sessionId;
+        NetLog.i(TAG, "Conversation started: " + start.sessionId);
+        notifyConversationStarted(start.sessionId, start.greeting, start.show);
+    }
 
-        } else if (message instanceof WebSocketMessage.Error) {
-            WebSocketMessage.Error error = (WebSocketMessage.Error) message;
-            notifyError(error.message);
+    private void onConversationEnded(WebSocketMessage.EndConversationResponse end) {
+        NetLog.i(TAG, "Conversation ended: " + end.sessionId + " reason: " + end.reason);
+        if (end.sessionId.equals(activeSessionId)) {
+            activeSessionId = null;
+        }
+        notifyConversationEnded(end.sessionId, end.farewell, end.reason);
+        if (end.replyTo != null) {
+            // El mensaje cerró la conversación sin respuesta propia: la despedida hace de respuesta
+            pendingRequests.complete(end.replyTo,
+                    new WebSocketMessage.Response(end.farewell, false, end.sessionId, null, null, end.replyTo));
+        }
+    }
 
-        } else if ("pong".equals(message)) {
-            Log.d(TAG, "Received pong");
+    private void onServerError(WebSocketMessage.Error error) {
+        notifyError(error.message);
+        if (error.replyTo != null) {
+            pendingRequests.fail(error.replyTo, new RequestException(error.message));
         }
     }
 
-    private void startPingTask() {
-        stopPingTask();
-        pingTask = scheduler.scheduleAtFixedRate(() -> {
-            if (connection != null && connection.isConnected()) {
-                WebSocketMessage.Ping ping = new WebSocketMessage.Ping();
-                connection.send(ping.toJson());
-                Log.d(TAG, "Sent ping");
+    private void onAuthenticated() {
+        backoff.reset();
+        replayOutbox();
+        startPingTask();
+        notifyConnected();
+    }
+
+    /**
+     * Confirma al servidor lo procesado hasta ahora, una vez por lote de despacho,
+     * para que deje de guardarlo para una reanudación.
+     */
+    private void acknowledgeSeq() {
+        long seq = lastSeq;
+        if (seq <= ackedSeq || !isAuthenticated) return;
+        WebSocketTransport current = connection;
+        if (current != null && current.send(new WebSocketMessage.SeqAck(seq).toJson())) {
+            ackedSeq = seq;
+        }
+    }
+
+    /**
+     * Reenvía en orden los mensajes sin ack. Los que el servidor ya tenía se descartan
+     * allí por su messageId.
+     */
+    private void replayOutbox() {
+        if (outbox == null) return;
+
+        List<Outbox.Entry> pending = outbox.pending();
+        if (pending.isEmpty()) return;
+
+        NetLog.i(TAG, "Replaying " + pending.size() + " unacknowledged messages");
+        WebSocketTransport current = connection;
+        for (Outbox.Entry entry : pending) {
+            if (current == null || !current.send(entry.json)) {
+                NetLog.w(TAG, "Send queue full, outbox replay stopped");
+                return;
             }
-        }, PING_INTERVAL_MS, PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private void stopPingTask() {
+    private void acknowledge(String messageId) {
+        if (outbox == null) return;
+        try {
+            outbox.ack(messageId);
+        } catch (IOException e) {
+            NetLog.e(TAG, "Cannot write outbox ack: " + e.getMessage());
+        }
+    }
+
+    private void startPingTask() {
+        runOnScheduler(() -> {
+            lastReceivedNanos = System.nanoTime();
+            awaitingPong = false;
+            scheduleHeartbeat(heartbeat.getInterval(currentNetworkType()));
+        });
+    }
+
+    /**
+     * Reprograma el heartbeat. Solo en el planificador, como todo lo que toca pingTask:
+     * así nunca hay dos pendientes ni sigue uno ya cancelado.
+     */
+    private void scheduleHeartbeat(long delayMs) {
         if (pingTask != null) {
             pingTask.cancel(false);
-            pingTask = null;
         }
+        pingTask = scheduler.schedule(this::heartbeatTick, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Solo hace ping tras un intervalo entero sin recibir nada: cualquier mensaje o pong
+     * recibido ya demuestra que la conexión vive. Si el pong no llega a tiempo se anota
+     * el fallo y se reintenta; tras varios seguidos el transporte cierra la conexión.
+     * Con la lectura pausada por la cola de entrada no se hace ping ni se cuentan fallos.
+     */
+    private void heartbeatTick() {
+        WebSocketTransport current = connection;
+        if (current == null || !current.isConnected()) return;
+
+        String networkType = currentNetworkType();
+        long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReceivedNanos);
+        if (awaitingPong) {
+            awaitingPong = false;
+            if (inbound.isPaused()) {
+                // El pong puede estar sin leer en el socket: la pausa es nuestra, no de la red
+                NetLog.d(TAG, "Reads paused, pong not counted as missed on " + networkType);
+                scheduleHeartbeat(heartbeat.getInterval(networkType));
+                return;
+            }
+            heartbeat.onMissedPong(networkType, pingIdleMs);
+            NetLog.w(TAG, "No pong within " + PONG_TIMEOUT_MS + "ms on " + networkType + ", retrying");
+            // El reintento no enseña nada sobre el intervalo
+            pingIdleMs = 0;
+        } else {
+            long interval = heartbeat.getInterval(networkType);
+            if (idleMs < interval) {
+                skippedPings.incrementAndGet();
+                scheduleHeartbeat(interval - idleMs);
+                return;
+            }
+            pingIdleMs = idleMs;
+        }
+
+        // Ping de protocolo: el servidor responde con pong sin pasar por la aplicación
+        if (!current.sendPing()) {
+            // P. ej. lectura pausada por la cola de entrada: no es culpa de la red, así que
+            // no se espera pong ni se cuenta fallo; se vuelve a mirar en un intervalo
+            NetLog.d(TAG, "Ping not sent on " + networkType + ", checking again later");
+            scheduleHeartbeat(heartbeat.getInterval(networkType));
+            return;
+        }
+        awaitingPong = true;
+        NetLog.d(TAG, "Sent ping after " + idleMs + "ms idle on " + networkType + ", " + current.getRttHistogram());
+        scheduleHeartbeat(PONG_TIMEOUT_MS);
     }
 
+    private void onHeartbeatPong() {
+        if (!awaitingPong) return;
+        awaitingPong = false;
+        String networkType = currentNetworkType();
+        heartbeat.onPong(networkType, pingIdleMs);
+        scheduleHeartbeat(heartbeat.getInterval(networkType));
+    }
+
+    private String currentNetworkType() {
+        String type = connectivityMonitor != null ? connectivityMonitor.getNetworkType() : null;
+        return type != null ? type : ConnectivityMonitor.NETWORK_UNKNOWN;
+    }
+
+    /**
+     * Se llama desde el llamante, el hilo lector o el planificador: la cancelación se hace
+     * en el planificador, detrás de lo que ya tuviera encolado.
+     */
+    private void stopPingTask() {
+        runOnScheduler(() -> {
+            if (pingTask != null) {
+                pingTask.cancel(false);
+                pingTask = null;
+            }
+        });
+    }
+
+    private void runOnScheduler(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Cliente destruido: no queda nada que programar
+            NetLog.d(TAG, "Scheduler shut down, task dropped");
+        }
+    }
+
+    /**
+     * Se llama desde el hilo lector o el planificador; el reintento se programa en el
+     * planificador, que es el único que toca reconnectTask.
+     */
     private void scheduleReconnect() {
-        if (!shouldBeConnected) return;
+        runOnScheduler(() -> {
+            if (!shouldBeConnected) return;
 
-        stopReconnectTask();
-        reconnectTask = scheduler.schedule(() -> {
-            if (shouldBeConnected) {
-                Log.d(TAG, "Attempting reconnect...");
-                doConnect();
+            stopReconnectTask();
+            if (connectivityMonitor != null && !connectivityMonitor.isNetworkAvailable()) {
+                // Reintentar sin red solo gasta batería: se espera a onNetworkAvailable()
+                NetLog.d(TAG, "No network, reconnect suspended");
+                waitingForNetwork = true;
+                return;
             }
-        }, RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS);
+
+            long delay = backoff.nextDelayMs();
+            NetLog.d(TAG, "Reconnecting in " + delay + "ms (attempt " + backoff.getAttempts() + ")");
+            reconnectTask = scheduler.schedule(() -> {
+                if (shouldBeConnected) {
+                    NetLog.d(TAG, "Attempting reconnect...");
+                    doConnect();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        });
     }
 
+    private final ConnectivityMonitor.Listener networkListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void onNetworkAvailable() {
+            scheduler.execute(() -> {
+                if (!shouldBeConnected) return;
+                if (isConnected()) {
+                    // Otra red (p. ej. el wifi de casa): puede haber un endpoint mejor
+                    recheckEndpoints();
+                    return;
+                }
+                // Solo si se estaba esperando: no pisar un intento de conexión en curso
+                boolean retryPending = reconnectTask != null && !reconnectTask.isDone();
+                if (!waitingForNetwork && !retryPending) return;
+
+                NetLog.d(TAG, "Network available, reconnecting now");
+                waitingForNetwork = false;
+                stopReconnectTask();
+                backoff.reset();
+                startEndpointRecheck();
+                // Una red que va y viene no repite la medición: solo si es de otro tipo
+                connectToFastestEndpoint(endpoints.fastest() == null
+                        || !currentNetworkType().equals(probedNetworkType));
+            });
+        }
+
+        @Override
+        public void onNetworkChanged() {
+            scheduler.execute(() -> {
+                // Otra red sin pasar por "sin red" (p. ej. del móvil al wifi de casa): puede
+                // haber un endpoint mejor
+                if (shouldBeConnected && isConnected()) {
+                    recheckEndpoints();
+                }
+            });
+        }
+
+        @Override
+        public void onNetworkLost() {
+            scheduler.execute(() -> {
+                if (!shouldBeConnected || reconnectTask == null || reconnectTask.isDone()) return;
+                NetLog.d(TAG, "Network lost, reconnect suspended");
+                stopReconnectTask();
+                waitingForNetwork = true;
+            });
+        }
+    };
+
+    /**
+     * Solo en el planificador.
+     */
     private void stopReconnectTask() {
         if (reconnectTask != null) {
             reconnectTask.cancel(false);
@@ -405,60 +1449,72 @@ public class YarvisWebSocketClient {
         }
     }
 
-    // Notificaciones al listener en el hilo principal
+    // Notificaciones al listener en el executor de despacho
 
-    private void notifyConnected() {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onConnected());
+    /**
+     * Entrega un evento al listener en el executor de despacho. Durante el despacho de
+     * mensajes entrantes ya se está en él y se llama directamente, sin otra tarea.
+     */
+    private void notifyListener(Consumer<ConnectionListener> event) {
+        if (listener == null) return;
+        if (Thread.currentThread() == dispatchThread) {
+            event.accept(listener);
+        } else {
+            dispatch(() -> event.accept(listener));
         }
     }
 
-    private void notifyDisconnected() {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onDisconnected());
+    private void dispatch(Runnable task) {
+        try {
+            dispatchExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Cliente destruido: ya nadie espera los eventos
+            NetLog.d(TAG, "Dispatch executor shut down, event dropped");
         }
     }
 
+    private void notifyConnected() {
+        notifyListener(ConnectionListener::onConnected);
+    }
+
+    private void notifyDisconnected() {
+        notifyListener(ConnectionListener::onDisconnected);
+    }
+
     private void notifyResponse(WebSocketMessage.Response response) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onResponse(response));
-        }
+        notifyListener(l -> l.onResponse(response));
+    }
+
+    private void notifyResponseChunk(WebSocketMessage.ResponseChunk chunk) {
+        notifyListener(l -> l.onResponseChunk(chunk));
+    }
+
+    private void notifyResponseEnd(WebSocketMessage.Response response) {
+        notifyListener(l -> l.onResponseEnd(response));
     }
 
     private void notifyAction(String action, String params) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onAction(action, params));
-        }
+        notifyListener(l -> l.onAction(action, params));
     }
 
     private void notifyError(String message) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onError(message));
-        }
+        notifyListener(l -> l.onError(message));
     }
 
     private void notifyConversationStarted(String sessionId, String greeting, WebSocketMessage.ShowContent show) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onConversationStarted(sessionId, greeting, show));
-        }
+        notifyListener(l -> l.onConversationStarted(sessionId, greeting, show));
     }
 
     private void notifyConversationEnded(String sessionId, String farewell, String reason) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onConversationEnded(sessionId, farewell, reason));
-        }
+        notifyListener(l -> l.onConversationEnded(sessionId, farewell, reason));
     }
 
     private void notifyAuthResult(boolean success, String message) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onAuthResult(success, message));
-        }
+        notifyListener(l -> l.onAuthResult(success, message));
     }
 
     private void notifyPasswordChangeResult(boolean success, String message) {
-        if (listener != null) {
-            mainHandler.post(() -> listener.onPasswordChangeResult(success, message));
-        }
+        notifyListener(l -> l.onPasswordChangeResult(success, message));
     }
 
     /**
@@ -466,6 +1522,16 @@ public class YarvisWebSocketClient {
      */
     public void destroy() {
         disconnect();
+        pendingRequests.failAll(new RequestException("Cliente cerrado"));
+        // Lo agrupado pasa por el límite como siempre; lo que admite va al outbox, para
+        // enviarlo en la próxima conexión, y lo retenido se descarta
+        notificationBatcher.flush();
+        notificationThrottle.clear();
         scheduler.shutdown();
+        // Deja terminar los eventos ya encolados (p. ej. onDisconnected)
+        defaultDispatchExecutor.shutdown();
+        if (outbox != null) {
+            outbox.close();
+        }
     }
 }
@@ -65,8 +65,8 @@ public class SettingsActivity extends AppCompatActivity implements
             serviceBound = true;
 
             // Registrar listeners
-            webSocketService.addConnectionStateListener(SettingsActivity.this);
-            webSocketService.addMessageListener(SettingsActivity.this);
+            webSocketService.addConnectionStateListener(SettingsActivity.this, webSocketService.getUiExecutor());
+            webSocketService.addMessageListener(SettingsActivity.this, webSocketService.getUiExecutor());
 
             // Actualizar UI con estado actual
             updateConnectionUI(webSocketService.isAuthenticated(),
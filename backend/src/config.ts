@@ -54,6 +54,7 @@ export const config: ServerConfig = {
   },
   workflowTimeout: Number(process.env.WORKFLOW_TIMEOUT) || 30000,
   sessionTimeout: Number(process.env.SESSION_TIMEOUT) || 5 * 60 * 1000, // 5 minutos
+  resumeWindow: Number(process.env.RESUME_WINDOW) || 2 * 60 * 1000, // 2 minutos
   mockMode: process.env.MOCK_MODE === 'true' || process.env.MOCK_MODE === '1',
   mockDelay: Number(process.env.MOCK_DELAY) || 500,
   password: loadPassword(),
@@ -1,12 +1,41 @@
+import { randomBytes } from 'crypto';
 import { WebSocket } from 'ws';
 import type { ServerMessage } from './types.js';
 
+// Mensajes sin número de secuencia: respuestas de protocolo que no tiene sentido
+// reenviar tras una reconexión
+const UNSEQUENCED_TYPES = new Set<ServerMessage['type']>([
+  'pong',
+  'ack',
+  'auth_response',
+  'resume_response',
+  'change_password_response',
+]);
+
+// Mensajes sin seq_ack que se guardan por cliente; los más antiguos se descartan
+const MAX_UNACKED_MESSAGES = 500;
+
 /**
- * Representa una conexión WebSocket de un cliente
+ * Representa una conexión WebSocket de un cliente.
+ *
+ * Los mensajes de aplicación llevan un número de secuencia creciente y se guardan
+ * hasta que el cliente confirma haberlos recibido (seq_ack). Si el socket se cae, la
+ * conexión queda sin ws durante la ventana de reanudación: lo que se envíe entretanto
+ * se guarda y se reenvía cuando el cliente vuelve con su token (resume).
  */
 export interface ClientConnection {
-  ws: WebSocket;
+  ws: WebSocket | null;
   id: string;
+  lastSeq: number;
+  unacked: { seq: number; data: string }[];
+  resumeToken?: string;
+  expiryTimer?: NodeJS.Timeout;
+}
+
+export interface ResumeResult {
+  clientId: string;
+  resumeToken: string;
+  lastSeq: number;
 }
 
 /**
@@ -14,12 +43,15 @@ export interface ClientConnection {
  */
 class ConnectionManager {
   private connections = new Map<string, ClientConnection>();
+  private clientsByToken = new Map<string, string>();
 
   /**
    * Registra una nueva conexión
    */
   add(clientId: string, ws: WebSocket): ClientConnection {
-    const conn: ClientConnection = { ws, id: clientId };
+    // Un clientId repetido sustituye a la conexión anterior (y a su token)
+    this.remove(clientId);
+    const conn: ClientConnection = { ws, id: clientId, lastSeq: 0, unacked: [] };
     this.connections.set(clientId, conn);
     return conn;
   }
@@ -28,9 +60,114 @@ class ConnectionManager {
    * Elimina una conexión
    */
   remove(clientId: string): boolean {
+    const conn = this.connections.get(clientId);
+    if (!conn) return false;
+    clearTimeout(conn.expiryTimer);
+    if (conn.resumeToken) {
+      this.clientsByToken.delete(conn.resumeToken);
+    }
     return this.connections.delete(clientId);
   }
 
+  /**
+   * Genera un token de reanudación nuevo para el cliente (invalida el anterior)
+   */
+  issueResumeToken(clientId: string): string | undefined {
+    const conn = this.connections.get(clientId);
+    if (!conn) return undefined;
+    if (conn.resumeToken) {
+      this.clientsByToken.delete(conn.resumeToken);
+    }
+    conn.resumeToken = randomBytes(24).toString('base64url');
+    this.clientsByToken.set(conn.resumeToken, clientId);
+    return conn.resumeToken;
+  }
+
+  /**
+   * Se cerró el socket de un cliente. Si puede reanudar, la conexión se conserva sin ws
+   * durante windowMs y después se elimina llamando a onExpire.
+   * Devuelve false si no se conserva y hay que limpiar el cliente ya.
+   */
+  detach(clientId: string, ws: WebSocket, windowMs: number, onExpire: () => void): boolean {
+    const conn = this.connections.get(clientId);
+    if (!conn) return false;
+    if (conn.ws !== ws) return true; // Ya reanudada desde otro socket
+    if (!conn.resumeToken || windowMs <= 0) {
+      this.remove(clientId);
+      return false;
+    }
+
+    conn.ws = null;
+    conn.expiryTimer = setTimeout(() => {
+      this.remove(clientId);
+      onExpire();
+    }, windowMs);
+    return true;
+  }
+
+  /**
+   * Asocia un socket nuevo a la conexión del token. Descarta lo que el cliente ya recibió
+   * (hasta lastSeq) y rota el token. Devuelve undefined si el token no es válido o si
+   * ya no se guardan todos los mensajes posteriores a lastSeq.
+   * Después hay que llamar a replayUnacked para enviar el hueco.
+   */
+  resume(token: string, lastSeq: number, ws: WebSocket): ResumeResult | undefined {
+    const clientId = this.clientsByToken.get(token);
+    const conn = clientId ? this.connections.get(clientId) : undefined;
+    if (!clientId || !conn) return undefined;
+
+    const oldest = conn.unacked.length > 0 ? conn.unacked[0].seq : conn.lastSeq + 1;
+    if (lastSeq > conn.lastSeq || lastSeq < oldest - 1) {
+      return undefined;
+    }
+
+    clearTimeout(conn.expiryTimer);
+    conn.expiryTimer = undefined;
+    const previous = conn.ws;
+    conn.ws = ws;
+    if (previous && previous !== ws) {
+      // El socket anterior seguía medio abierto: el cliente ya no lo usa
+      previous.terminate();
+    }
+    this.acknowledge(clientId, lastSeq);
+
+    const resumeToken = this.issueResumeToken(clientId)!;
+    return { clientId, resumeToken, lastSeq: conn.lastSeq };
+  }
+
+  /**
+   * El cliente confirmó haber recibido hasta seq (incluido)
+   */
+  acknowledge(clientId: string, seq: number): void {
+    const conn = this.connections.get(clientId);
+    if (!conn) return;
+    let acked = 0;
+    while (acked < conn.unacked.length && conn.unacked[acked].seq <= seq) {
+      acked++;
+    }
+    conn.unacked.splice(0, acked);
+  }
+
+  /**
+   * Reenvía en orden los mensajes que el cliente aún no ha confirmado
+   */
+  replayUnacked(clientId: string): number {
+    const conn = this.connections.get(clientId);
+    if (!conn || !conn.ws || conn.ws.readyState !== WebSocket.OPEN) return 0;
+    for (const { data } of conn.unacked) {
+      conn.ws.send(data);
+    }
+    return conn.unacked.length;
+  }
+
+  /**
+   * Verifica si el cliente tiene un socket abierto (no está esperando reanudar)
+   */
+  isConnected(clientId: string): boolean {
+    const ws = this.connections.get(clientId)?.ws;
+    return !!ws && ws.readyState === WebSocket.OPEN;
+  }
+
   /**
    * Obtiene una conexión por ID
    */
@@ -67,19 +204,35 @@ class ConnectionManager {
   }
 
   /**
-   * Envía un mensaje a un cliente específico
+   * Envía un mensaje a un cliente específico. Los mensajes de aplicación se numeran y
+   * se guardan: si el cliente está reconectando, se entregan cuando reanude.
    */
   sendTo(clientId: string, message: ServerMessage): boolean {
     const conn = this.connections.get(clientId);
-    if (conn && conn.ws.readyState === WebSocket.OPEN) {
+    if (!conn) return false;
+
+    let data: string;
+    const sequenced = !UNSEQUENCED_TYPES.has(message.type);
+    if (sequenced) {
+      const seq = ++conn.lastSeq;
+      data = JSON.stringify({ ...message, seq });
+      conn.unacked.push({ seq, data });
+      if (conn.unacked.length > MAX_UNACKED_MESSAGES) {
+        conn.unacked.shift();
+      }
+    } else {
+      data = JSON.stringify(message);
+    }
+
+    if (conn.ws && conn.ws.readyState === WebSocket.OPEN) {
       try {
-        conn.ws.send(JSON.stringify(message));
+        conn.ws.send(data);
         return true;
       } catch (error) {
         console.error(`[WS] Error sending to ${clientId}:`, error);
       }
     }
-    return false;
+    return sequenced && !!conn.resumeToken;
   }
 
   /**
@@ -88,13 +241,8 @@ class ConnectionManager {
   broadcast(message: ServerMessage): number {
     let count = 0;
     this.connections.forEach((conn) => {
-      if (conn.ws.readyState === WebSocket.OPEN) {
-        try {
-          conn.ws.send(JSON.stringify(message));
-          count++;
-        } catch (error) {
-          console.error(`[WS] Error broadcasting to ${conn.id}:`, error);
-        }
+      if (this.sendTo(conn.id, message)) {
+        count++;
       }
     });
     return count;
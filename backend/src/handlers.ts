@@ -1,5 +1,5 @@
 import { v4 as uuidv4 } from 'uuid';
-import type { ClientMessage, ServerMessage, WorkflowResponse } from './types.js';
+import type { ClientMessage, ServerMessage, WorkflowResponse, NotificationBatchItem } from './types.js';
 import { SessionManager } from './sessions.js';
 import { WorkflowClient } from './workflow.js';
 import { MockWorkflowClient } from './mock-workflow.js';
@@ -28,9 +28,24 @@ function processWorkflowResponse(
   activeSession: { id: string } | undefined,
   speak: boolean,
   sendResponse: SendResponse,
-  sessions: SessionManager
+  sessions: SessionManager,
+  streamId?: string
 ): boolean {
+  // Si el texto ya se envió por fragmentos, la respuesta completa cierra ese stream
+  const finalType = result.streamed && streamId ? 'response_end' : 'response';
+  const messageId = streamId ?? uuidv4();
+
   if (!result.success) {
+    if (finalType === 'response_end') {
+      // Ya se enviaron fragmentos: el cliente espera el cierre para dejar de esperar el resto
+      sendResponse({
+        type: 'response_end',
+        text: result.response || '',
+        speak,
+        sessionId: activeSession?.id,
+        messageId,
+      });
+    }
     sendResponse({
       type: 'error',
       message: result.error || 'Error procesando comando',
@@ -40,11 +55,11 @@ function processWorkflowResponse(
 
   if (result.endConversation && activeSession) {
     sendResponse({
-      type: 'response',
+      type: finalType,
       text: result.farewell || result.response || '',
       speak,
       sessionId: activeSession.id,
-      messageId: uuidv4(),
+      messageId,
       show: result.show,
     });
     sendResponse({
@@ -57,13 +72,13 @@ function processWorkflowResponse(
     return true;
   }
 
-  if (result.response) {
+  if (result.response || finalType === 'response_end') {
     sendResponse({
-      type: 'response',
-      text: result.response,
+      type: finalType,
+      text: result.response || '',
       speak,
       sessionId: activeSession?.id,
-      messageId: uuidv4(),
+      messageId,
       show: result.show,
     });
   }
@@ -111,14 +126,23 @@ async function handleTextMessage(
     return;
   }
 
+  // Los fragmentos se reenvían según llegan: el cliente empieza a hablar sin esperar al final
+  const streamId = uuidv4();
   const result = await workflow.sendVoiceCommand(
     text,
     activeSession?.id,
     activeSession?.context,
-    production
+    production,
+    (chunk) => sendResponse({
+      type: 'response_chunk',
+      text: chunk,
+      speak,
+      sessionId: activeSession?.id,
+      messageId: streamId,
+    })
   );
 
-  processWorkflowResponse(result, activeSession, speak, sendResponse, sessions);
+  processWorkflowResponse(result, activeSession, speak, sendResponse, sessions, streamId);
 }
 
 /**
@@ -138,7 +162,37 @@ async function handleNotification(
   console.log(`[Notification] [${envLabel}] ${app}: ${title}`);
 
   const result = await workflow.sendNotification(app, title, text, production);
+  processNotificationResponse(clientId, result, sessions, sendResponse);
+}
+
+/**
+ * Manejador de lotes de notificaciones: una sola llamada al workflow por lote
+ */
+async function handleNotificationBatch(
+  clientId: string,
+  notifications: NotificationBatchItem[],
+  production: boolean,
+  sessions: SessionManager,
+  workflow: WorkflowClient | MockWorkflowClient,
+  sendResponse: SendResponse
+): Promise<void> {
+  const envLabel = production ? 'PROD' : 'DEV';
+  const total = notifications.reduce((sum, n) => sum + n.count, 0);
+  console.log(`[Notification] [${envLabel}] Batch: ${notifications.length} items (${total} notifications)`);
+
+  const result = await workflow.sendNotificationBatch(notifications, production);
+  processNotificationResponse(clientId, result, sessions, sendResponse);
+}
 
+/**
+ * Respuesta del workflow a una notificación o lote: puede iniciar conversación o hablar
+ */
+function processNotificationResponse(
+  clientId: string,
+  result: WorkflowResponse,
+  sessions: SessionManager,
+  sendResponse: SendResponse
+): void {
   if (result.success && result.response) {
     if (result.action === 'START_CONVERSATION') {
       const session = sessions.createSession(clientId, 'system');
@@ -209,6 +263,17 @@ export async function handleClientMessage(
       );
       break;
 
+    case 'notification_batch':
+      await handleNotificationBatch(
+        clientId,
+        message.notifications ?? [],
+        message.production ?? false,
+        sessions,
+        workflow,
+        sendResponse
+      );
+      break;
+
     case 'end_conversation': {
       const session = sessions.getSession(message.sessionId);
       if (session) {
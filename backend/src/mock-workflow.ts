@@ -1,4 +1,4 @@
-import type { WorkflowResponse, ShowContent } from './types.js';
+import type { WorkflowResponse, ShowContent, NotificationBatchItem } from './types.js';
 
 /**
  * Respuestas mock predefinidas para diferentes tipos de comandos
@@ -225,7 +225,8 @@ export class MockWorkflowClient {
     text: string,
     sessionId?: string,
     context?: Record<string, unknown>,
-    production = false
+    production = false,
+    onChunk?: (text: string) => void
   ): Promise<WorkflowResponse> {
     // Simular latencia de red
     await this.simulateDelay();
@@ -237,14 +238,14 @@ export class MockWorkflowClient {
       for (const pattern of mock.patterns) {
         if (pattern.test(text)) {
           console.log(`[Mock] Matched pattern: ${pattern}`);
-          return { ...mock.response };
+          return this.streamResponse({ ...mock.response }, onChunk);
         }
       }
     }
 
     // Respuesta por defecto
     console.log('[Mock] No pattern matched, using default response');
-    return { ...defaultResponse };
+    return this.streamResponse({ ...defaultResponse }, onChunk);
   }
 
   /**
@@ -283,6 +284,46 @@ export class MockWorkflowClient {
     };
   }
 
+  /**
+   * Simula el envío de un lote de notificaciones: responde a la primera importante.
+   */
+  async sendNotificationBatch(
+    notifications: NotificationBatchItem[],
+    production = false
+  ): Promise<WorkflowResponse> {
+    console.log(`[Mock] Notification batch: ${notifications.length} items`);
+
+    for (const n of notifications) {
+      const result = await this.sendNotification(n.app, n.title, n.text, production);
+      if (result.response) {
+        return result;
+      }
+    }
+
+    return {
+      success: true,
+    };
+  }
+
+  /**
+   * Simula un webhook en streaming: envía la respuesta por fragmentos de unas pocas
+   * palabras, como llegarían de un LLM.
+   */
+  private async streamResponse(
+    result: WorkflowResponse,
+    onChunk?: (text: string) => void
+  ): Promise<WorkflowResponse> {
+    if (!onChunk || !result.response) {
+      return result;
+    }
+    const words = result.response.match(/\S+\s*/g) ?? [];
+    for (let i = 0; i < words.length; i += 3) {
+      onChunk(words.slice(i, i + 3).join(''));
+      await new Promise((resolve) => setTimeout(resolve, 50));
+    }
+    return { ...result, streamed: true };
+  }
+
   /**
    * Health check siempre retorna true en modo mock.
    */
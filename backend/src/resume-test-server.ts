@@ -0,0 +1,46 @@
+import 'dotenv/config';
+import { createServer } from 'http';
+import { config } from './config.js';
+import { connections } from './connections.js';
+import { setupWebSocketServer } from './websocket.js';
+import { SessionManager } from './sessions.js';
+import { MockWorkflowClient } from './mock-workflow.js';
+
+/**
+ * Servidor local para probar la reanudación de conexiones (pnpm dev:resume).
+ *
+ * Usa el workflow mock y, cada DROP_INTERVAL ms, corta el socket de cada cliente
+ * conectado sin cerrar la conexión WebSocket (como una pérdida de red) y le envía
+ * unos mensajes numerados mientras está caído. Al reanudar, el cliente debe recibirlos
+ * todos, en orden y sin duplicados.
+ */
+
+const DROP_INTERVAL_MS = Number(process.env.DROP_INTERVAL) || 20000;
+const MESSAGES_WHILE_OFFLINE = 3;
+
+const sessions = new SessionManager(config.sessionTimeout);
+const server = createServer();
+setupWebSocketServer(server, sessions, new MockWorkflowClient(config.mockDelay));
+
+let round = 0;
+setInterval(() => {
+  round++;
+  for (const clientId of connections.getAllClientIds()) {
+    const conn = connections.get(clientId);
+    if (!conn?.ws || !conn.resumeToken) continue;
+
+    conn.ws.terminate();
+    for (let i = 1; i <= MESSAGES_WHILE_OFFLINE; i++) {
+      connections.sendTo(clientId, {
+        type: 'response',
+        text: `Mensaje ${i}/${MESSAGES_WHILE_OFFLINE} enviado sin conexión (ronda ${round})`,
+        speak: false,
+      });
+    }
+    console.log(`[ResumeTest] Dropped ${clientId}, queued ${MESSAGES_WHILE_OFFLINE} message(s) up to seq ${conn.lastSeq}`);
+  }
+}, DROP_INTERVAL_MS);
+
+server.listen(config.port, () => {
+  console.log(`[ResumeTest] ws://localhost:${config.port}/ws - dropping clients every ${DROP_INTERVAL_MS}ms`);
+});
@@ -262,6 +262,7 @@ export function createRoutes(config: ServerConfig, sessions: SessionManager): Ro
   router.get('/api/clients', basicAuth, (req, res) => {
     const clients = connections.getAllClientIds().map((id) => ({
       id,
+      connected: connections.isConnected(id),  // false mientras espera reanudar
       hasActiveSession: sessions.hasActiveSession(id),
       activeSession: sessions.getActiveSessionForClient(id),
     }));
@@ -15,13 +15,29 @@ export interface ConversationSession {
 
 // ==================== Mensajes del cliente (Android) al servidor ====================
 
+/**
+ * Notificación dentro de un notification_batch. Las repetidas de una misma app y título
+ * llegan fusionadas: text es la más reciente y count cuántas hubo en la ventana.
+ */
+export interface NotificationBatchItem {
+  app: string;
+  title: string;
+  text: string;
+  count: number;
+  timestamp: number;
+}
+
+// messageId: ID generado por el cliente para confirmar la entrega (ack) y descartar reenvíos
 export type ClientMessage =
-  | { type: 'voice_command'; text: string; timestamp: number; sessionId?: string; production?: boolean }
-  | { type: 'chat_message'; text: string; timestamp: number; sessionId?: string; production?: boolean }  // Mensaje de chat escrito
-  | { type: 'notification'; app: string; title: string; text: string; production?: boolean }
+  | { type: 'voice_command'; text: string; timestamp: number; sessionId?: string; production?: boolean; messageId?: string }
+  | { type: 'chat_message'; text: string; timestamp: number; sessionId?: string; production?: boolean; messageId?: string }  // Mensaje de chat escrito
+  | { type: 'notification'; app: string; title: string; text: string; production?: boolean; messageId?: string }
+  | { type: 'notification_batch'; notifications: NotificationBatchItem[]; production?: boolean; messageId?: string }
   | { type: 'end_conversation'; sessionId: string; reason?: string }
   | { type: 'ping' }
   | { type: 'auth'; password: string; agentName?: string }
+  | { type: 'resume'; token: string; lastSeq: number }  // Reanuda la conexión anterior sin contraseña
+  | { type: 'seq_ack'; seq: number }  // Mensajes del servidor recibidos hasta seq (incluido)
   | { type: 'change_password'; currentPassword: string; newPassword: string };
 
 // ==================== Contenido enriquecido para mostrar ====================
@@ -60,6 +76,8 @@ export interface ShowListItem {
 
 // ==================== Mensajes del servidor al cliente (Android) ====================
 
+// Los mensajes de aplicación (todos salvo pong, ack, auth_response, resume_response y
+// change_password_response) se envían con un campo seq creciente por cliente
 export type ServerMessage =
   | {
       type: 'response';
@@ -68,6 +86,26 @@ export type ServerMessage =
       sessionId?: string;
       messageId?: string;        // ID único del mensaje
       show?: ShowContent;        // Contenido para mostrar en UI (preview)
+      replyTo?: string;          // messageId del mensaje del cliente al que responde
+    }
+  | {
+      // Fragmento de una respuesta que el agente aún está generando (para TTS incremental)
+      type: 'response_chunk';
+      text: string;              // Texto nuevo desde el fragmento anterior
+      speak: boolean;
+      sessionId?: string;
+      messageId: string;         // ID de la respuesta; el mismo en todos sus fragmentos y en response_end
+      replyTo?: string;
+    }
+  | {
+      // Cierra una respuesta enviada por fragmentos; mismos campos que response
+      type: 'response_end';
+      text: string;              // Texto completo
+      speak: boolean;
+      sessionId?: string;
+      messageId: string;
+      show?: ShowContent;
+      replyTo?: string;
     }
   | { type: 'action'; action: string; params?: Record<string, unknown> }
   | {
@@ -77,10 +115,13 @@ export type ServerMessage =
       context?: Record<string, unknown>;
       show?: ShowContent;
     }
-  | { type: 'end_conversation'; sessionId: string; farewell?: string; reason: EndConversationReason }
-  | { type: 'error'; message: string }
+  | { type: 'end_conversation'; sessionId: string; farewell?: string; reason: EndConversationReason; replyTo?: string }
+  | { type: 'error'; message: string; replyTo?: string }
   | { type: 'pong' }
-  | { type: 'auth_response'; success: boolean; message?: string }
+  | { type: 'ack'; messageId: string }  // Mensaje del cliente recibido (se puede borrar de su outbox)
+  | { type: 'no_response'; replyTo: string }  // Mensaje procesado, el agente no respondió
+  | { type: 'auth_response'; success: boolean; message?: string; resumeToken?: string }
+  | { type: 'resume_response'; success: boolean; message?: string; resumeToken?: string; lastSeq?: number }
   | { type: 'change_password_response'; success: boolean; message: string };
 
 export type EndConversationReason =
@@ -137,6 +178,7 @@ export interface WorkflowResponse {
   farewell?: string;           // Mensaje de despedida si termina
   show?: ShowContent;          // Contenido enriquecido para mostrar
   error?: string;
+  streamed?: boolean;          // response ya se envió por fragmentos (onChunk)
 }
 
 // ==================== Autenticación ====================
@@ -151,6 +193,7 @@ export interface AuthResponse {
   type: 'auth_response';
   success: boolean;
   message?: string;
+  resumeToken?: string;
 }
 
 export interface ChangePasswordRequest {
@@ -183,6 +226,7 @@ export interface ServerConfig {
   workflowProd: WorkflowEndpointConfig;  // Configuración de workflow de producción
   workflowTimeout: number;
   sessionTimeout: number;      // Timeout de inactividad en ms
+  resumeWindow: number;        // Tiempo que se guarda la conexión de un cliente caído para reanudarla (ms)
   mockMode: boolean;           // Usar cliente mock en lugar de webhook real
   mockDelay: number;           // Delay simulado en modo mock (ms)
   password: string;            // Contraseña para autenticación de clientes
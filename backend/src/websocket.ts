@@ -1,4 +1,4 @@
-import { WebSocketServer, WebSocket } from 'ws';
+import { WebSocketServer } from 'ws';
 import { Server as HttpServer } from 'http';
 import { v4 as uuidv4 } from 'uuid';
 import type { ClientMessage, ServerMessage } from './types.js';
@@ -12,6 +12,49 @@ import { config, savePassword } from './config.js';
 // Map para rastrear clientes autenticados
 const authenticatedClients = new Map<string, { agentName?: string }>();
 
+// IDs de mensajes ya recibidos: el cliente reenvía lo no confirmado al reconectar
+// y el ack pudo perderse con la conexión anterior
+const MAX_RECENT_MESSAGE_IDS = 10000;
+const recentMessageIds = new Set<string>();
+
+/**
+ * Registra un messageId. Devuelve false si ya se había recibido.
+ */
+function rememberMessageId(messageId: string): boolean {
+  if (recentMessageIds.has(messageId)) {
+    return false;
+  }
+  recentMessageIds.add(messageId);
+  if (recentMessageIds.size > MAX_RECENT_MESSAGE_IDS) {
+    // Set conserva el orden de inserción: el primero es el más antiguo
+    const oldest = recentMessageIds.values().next().value;
+    if (oldest !== undefined) {
+      recentMessageIds.delete(oldest);
+    }
+  }
+  return true;
+}
+
+/**
+ * Marca con replyTo los mensajes que contestan a un mensaje del cliente, para que
+ * este sepa a qué petición corresponden.
+ */
+function withReplyTo(response: ServerMessage, replyTo: string | undefined): ServerMessage {
+  if (!replyTo) {
+    return response;
+  }
+  switch (response.type) {
+    case 'response':
+    case 'response_chunk':
+    case 'response_end':
+    case 'error':
+    case 'end_conversation':
+      return { ...response, replyTo };
+    default:
+      return response;
+  }
+}
+
 /**
  * Verifica si un cliente está autenticado
  */
@@ -34,24 +77,45 @@ export function setupWebSocketServer(
   sessions: SessionManager,
   workflow: WorkflowClient | MockWorkflowClient
 ): WebSocketServer {
-  const wss = new WebSocketServer({ server, path: '/ws' });
+  const wss = new WebSocketServer({
+    server,
+    path: '/ws',
+    // permessage-deflate (RFC 7692): solo se usa si el cliente lo ofrece en el handshake
+    perMessageDeflate: {
+      threshold: 256,
+      serverNoContextTakeover: false,
+      clientNoContextTakeover: false,
+    },
+  });
 
   wss.on('connection', (ws, req) => {
     const url = new URL(req.url || '', `http://${req.headers.host}`);
-    const clientId = url.searchParams.get('clientId') || uuidv4();
+    // Cambia si el cliente reanuda una conexión anterior
+    let clientId = url.searchParams.get('clientId') || uuidv4();
 
     connections.add(clientId, ws);
+    // Un socket nuevo siempre tiene que autenticarse (o reanudar con su token)
+    authenticatedClients.delete(clientId);
     console.log(`[WS] Client connected: ${clientId} (total: ${connections.size})`);
 
-    ws.on('message', async (data) => {
+    ws.on('message', async (data, isBinary) => {
+      // Los frames binarios (p. ej. audio) aún no tienen consumidor en el backend
+      if (isBinary) {
+        console.log(`[WS] Ignoring binary message from ${clientId} (${(data as Buffer).length} bytes)`);
+        return;
+      }
+
+      let replyTo: string | undefined;
       try {
         const message = JSON.parse(data.toString()) as ClientMessage;
         
         // Manejar autenticación
         if (message.type === 'auth') {
           const isValid = message.password === config.password;
+          let resumeToken: string | undefined;
           if (isValid) {
             authenticatedClients.set(clientId, { agentName: message.agentName });
+            resumeToken = connections.issueResumeToken(clientId);
             console.log(`[WS] Client authenticated: ${clientId} (agent: ${message.agentName || 'unnamed'})`);
           } else {
             console.log(`[WS] Authentication failed for client: ${clientId}`);
@@ -60,10 +124,37 @@ export function setupWebSocketServer(
             type: 'auth_response',
             success: isValid,
             message: isValid ? 'Autenticación exitosa' : 'Contraseña incorrecta',
+            resumeToken,
           } as ServerMessage));
           return;
         }
 
+        // Reanudar la conexión anterior: sin contraseña y recibiendo solo lo que se perdió
+        if (message.type === 'resume') {
+          const resumed = connections.resume(message.token, message.lastSeq, ws);
+          if (!resumed) {
+            console.log(`[WS] Resume rejected for client: ${clientId}`);
+            ws.send(JSON.stringify({
+              type: 'resume_response',
+              success: false,
+              message: 'Sesión no reanudable, autentícate de nuevo',
+            } as ServerMessage));
+            return;
+          }
+
+          connections.remove(clientId);
+          clientId = resumed.clientId;
+          ws.send(JSON.stringify({
+            type: 'resume_response',
+            success: true,
+            resumeToken: resumed.resumeToken,
+            lastSeq: resumed.lastSeq,
+          } as ServerMessage));
+          const replayed = connections.replayUnacked(clientId);
+          console.log(`[WS] Client resumed: ${clientId} (replayed ${replayed} message(s))`);
+          return;
+        }
+
         // Manejar cambio de contraseña
         if (message.type === 'change_password') {
           if (!isClientAuthenticated(clientId)) {
@@ -102,33 +193,77 @@ export function setupWebSocketServer(
           return;
         }
 
+        if (message.type === 'seq_ack') {
+          connections.acknowledge(clientId, message.seq);
+          return;
+        }
+
+        // Confirmar la recepción antes de procesar (el workflow puede tardar)
+        if ('messageId' in message && message.messageId) {
+          ws.send(JSON.stringify({ type: 'ack', messageId: message.messageId } as ServerMessage));
+          if (!rememberMessageId(message.messageId)) {
+            console.log(`[WS] Duplicate message ${message.messageId} from ${clientId}, ignored`);
+            return;
+          }
+        }
+
+        // Solo los comandos de voz y chat esperan respuesta; las notificaciones no
+        replyTo = message.type === 'voice_command' || message.type === 'chat_message'
+          ? message.messageId
+          : undefined;
+        let answered = false;
         await handleClientMessage(
           clientId,
           message,
           (response: ServerMessage) => {
-            if (ws.readyState === WebSocket.OPEN) {
-              ws.send(JSON.stringify(response));
+            const reply = withReplyTo(response, replyTo);
+            if (reply !== response) {
+              answered = true;
             }
+            // Por el gestor de conexiones: lleva seq y sobrevive a una reconexión
+            connections.sendTo(clientId, reply);
           },
           sessions,
           workflow
         );
+
+        // El agente puede no contestar: el cliente que espera respuesta no debe quedarse colgado
+        if (replyTo && !answered) {
+          connections.sendTo(clientId, { type: 'no_response', replyTo });
+        }
       } catch (error) {
         console.error('[WS] Error parsing message:', error);
-        if (ws.readyState === WebSocket.OPEN) {
-          ws.send(JSON.stringify({
-            type: 'error',
-            message: 'Invalid message format',
-          } as ServerMessage));
-        }
+        connections.sendTo(clientId, withReplyTo({
+          type: 'error',
+          message: 'Invalid message format',
+        }, replyTo));
       }
     });
 
     ws.on('close', () => {
-      connections.remove(clientId);
-      authenticatedClients.delete(clientId);
-      sessions.endSessionsForClient(clientId, 'system');
-      console.log(`[WS] Client disconnected: ${clientId} (total: ${connections.size})`);
+      const id = clientId;
+      if (connections.get(id)?.ws !== ws) {
+        // Otro socket ocupa ya este clientId (reanudación o clientId repetido)
+        console.log(`[WS] Superseded socket closed for client: ${id}`);
+        return;
+      }
+
+      const cleanup = () => {
+        authenticatedClients.delete(id);
+        sessions.endSessionsForClient(id, 'system');
+      };
+
+      // Autenticado: se conserva su estado por si reanuda antes de resumeWindow
+      const kept = isClientAuthenticated(id)
+        && connections.detach(id, ws, config.resumeWindow, () => {
+          cleanup();
+          console.log(`[WS] Resume window expired for client: ${id}`);
+        });
+      if (!kept) {
+        connections.remove(id);
+        cleanup();
+      }
+      console.log(`[WS] Client disconnected: ${id} (total: ${connections.size})`);
     });
 
     ws.on('error', (error) => {
@@ -1,16 +1,17 @@
-import type { WorkflowResponse, WorkflowEndpointConfig } from './types.js';
+import type { WorkflowResponse, WorkflowEndpointConfig, NotificationBatchItem } from './types.js';
 
 /**
  * Payload enviado al sistema de automatización de flujos
  */
 interface WorkflowPayload {
-  type: 'voice_command' | 'notification';
+  type: 'voice_command' | 'notification' | 'notification_batch';
   text?: string;
   timestamp?: number;
   sessionId?: string;
   context?: Record<string, unknown>;
   app?: string;
   title?: string;
+  notifications?: NotificationBatchItem[];
 }
 
 /**
@@ -54,12 +55,14 @@ export class WorkflowClient {
   /**
    * Envía un comando de voz al sistema de automatización y espera la respuesta.
    * Incluye información de sesión si existe una conversación activa.
+   * Si el webhook responde en streaming, onChunk recibe el texto según llega.
    */
   async sendVoiceCommand(
     text: string,
     sessionId?: string,
     context?: Record<string, unknown>,
-    production = false
+    production = false,
+    onChunk?: (text: string) => void
   ): Promise<WorkflowResponse> {
     return this.send(
       {
@@ -69,7 +72,8 @@ export class WorkflowClient {
         sessionId,
         context,
       },
-      production
+      production,
+      onChunk
     );
   }
 
@@ -93,20 +97,43 @@ export class WorkflowClient {
     );
   }
 
+  /**
+   * Envía de una vez las notificaciones agrupadas por el cliente
+   */
+  async sendNotificationBatch(
+    notifications: NotificationBatchItem[],
+    production = false
+  ): Promise<WorkflowResponse> {
+    return this.send(
+      {
+        type: 'notification_batch',
+        notifications,
+      },
+      production
+    );
+  }
+
   /**
    * Envía un mensaje genérico al webhook del entorno especificado
    */
-  private async send(payload: WorkflowPayload, production: boolean): Promise<WorkflowResponse> {
+  private async send(
+    payload: WorkflowPayload,
+    production: boolean,
+    onChunk?: (text: string) => void
+  ): Promise<WorkflowResponse> {
     const endpointConfig = this.getEndpointConfig(production);
     const envLabel = production ? 'PROD' : 'DEV';
 
     try {
       const controller = new AbortController();
-      const timeoutId = setTimeout(() => controller.abort(), this.timeout);
+      let timeoutId = setTimeout(() => controller.abort(), this.timeout);
 
       const headers: Record<string, string> = {
         'Content-Type': 'application/json',
       };
+      if (onChunk) {
+        headers['Accept'] = 'application/x-ndjson, application/json';
+      }
 
       const authHeader = this.getAuthHeader(endpointConfig);
       if (authHeader) {
@@ -134,6 +161,21 @@ export class WorkflowClient {
         };
       }
 
+      const contentType = response.headers.get('content-type') ?? '';
+      if (onChunk && response.body && contentType.includes('application/x-ndjson')) {
+        // Mientras llega el stream el plazo es de inactividad: se renueva con cada dato
+        const touch = () => {
+          clearTimeout(timeoutId);
+          timeoutId = setTimeout(() => controller.abort(), this.timeout);
+        };
+        touch();
+        try {
+          return await this.readStream(response.body, onChunk, touch, envLabel);
+        } finally {
+          clearTimeout(timeoutId);
+        }
+      }
+
       const data = await response.json();
       return {
         success: true,
@@ -150,6 +192,79 @@ export class WorkflowClient {
     }
   }
 
+  /**
+   * Lee una respuesta en streaming (NDJSON, formato de n8n): cada línea
+   * {"type":"item","content":"..."} es un fragmento de texto y una línea con
+   * {"output":{...}} trae el resto de campos de la respuesta. Si output no trae
+   * response, el texto es la concatenación de los fragmentos.
+   *
+   * Si el stream se corta después de haber reenviado fragmentos, devuelve el error con
+   * streamed=true y el texto recibido, para que el cliente pueda cerrar la respuesta.
+   */
+  private async readStream(
+    body: ReadableStream<Uint8Array>,
+    onChunk: (text: string) => void,
+    onData: () => void,
+    envLabel: string
+  ): Promise<WorkflowResponse> {
+    const reader = body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = '';
+    let text = '';
+    let output: Partial<WorkflowResponse> = {};
+
+    const handleLine = (line: string) => {
+      if (!line.trim()) return;
+      try {
+        const event = JSON.parse(line);
+        if (event.type === 'item' && typeof event.content === 'string' && event.content) {
+          text += event.content;
+          onChunk(event.content);
+        } else if (event.output && typeof event.output === 'object') {
+          output = event.output;
+        }
+      } catch {
+        console.warn(`[Workflow] Ignoring malformed stream line: ${line}`);
+      }
+    };
+
+    try {
+      for (;;) {
+        const { done, value } = await reader.read();
+        if (done) break;
+        onData();
+        buffer += decoder.decode(value, { stream: true });
+        let newline: number;
+        while ((newline = buffer.indexOf('\n')) >= 0) {
+          handleLine(buffer.slice(0, newline));
+          buffer = buffer.slice(newline + 1);
+        }
+      }
+      handleLine(buffer + decoder.decode());
+    } catch (error) {
+      if (!text) {
+        throw error;
+      }
+      const reason = error instanceof Error && error.name === 'AbortError'
+        ? 'stream timed out'
+        : error instanceof Error ? error.message : 'Unknown error';
+      console.error(`[Workflow] ${envLabel} stream interrupted: ${reason}`);
+      return {
+        success: false,
+        error: `Workflow [${envLabel}]: ${reason}`,
+        response: text,
+        streamed: true,
+      };
+    }
+
+    return {
+      ...output,
+      success: output.success ?? true,
+      response: output.response ?? (text || undefined),
+      streamed: text.length > 0,
+    };
+  }
+
   /**
    * Verifica si el webhook está disponible
    */